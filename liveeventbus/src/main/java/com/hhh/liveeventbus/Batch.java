@@ -0,0 +1,59 @@
+package com.hhh.liveeventbus;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * 批量发送多个 key 的消息，通过 {@link LiveEventBus#beginBatch()} 创建，非线程安全
+ *
+ * commit 时只切换一次线程，先让所有的值生效，再通知 Observer，Observer 不会看到只更新了一部分的中间状态；
+ * 同一个 key 在一个批次中多次 put 只保留最后一个值，每个 Observer 每批只收到一次
+ */
+public final class Batch {
+
+  @NonNull
+  private final LiveEventBus mLiveEventBus;
+  private final Map<String, Object> mValues = new LinkedHashMap<>();
+  private boolean mCommitted;
+
+  Batch(@NonNull LiveEventBus liveEventBus) {
+    mLiveEventBus = liveEventBus;
+  }
+
+  /**
+   * @param type 默认key为 type.getName()
+   */
+  @NonNull
+  public <T> Batch put(@NonNull Class<T> type, @Nullable T value) {
+    return put(type.getName(), value);
+  }
+
+  /**
+   * 尚未创建的 key 在 commit 时按普通的 key 创建，持久化的 key 需要先通过
+   * {@link LiveEventBus#withPersistent(String, Class, Serializer)} 创建，否则值不会被持久化，
+   * 之后也无法再通过 withPersistent 获取
+   */
+  @NonNull
+  public <T> Batch put(@NonNull String key, @Nullable T value) {
+    if (mCommitted) {
+      throw new IllegalStateException("batch is already committed");
+    }
+    mValues.put(key, value);
+    return this;
+  }
+
+  /**
+   * 提交后不能再使用，支持前、后台线程调用
+   * 使用线程池分发的总线，不同分发线程上的 key 分别生效，只在同一个分发线程内保证原子性
+   */
+  public void commit() {
+    if (mCommitted) {
+      throw new IllegalStateException("batch is already committed");
+    }
+    mCommitted = true;
+    mLiveEventBus.commit(mValues);
+  }
+}
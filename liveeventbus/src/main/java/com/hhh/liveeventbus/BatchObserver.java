@@ -0,0 +1,22 @@
+package com.hhh.liveeventbus;
+
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 关注多个 key 的 Observer，每次 {@link Batch#commit()} 在每个分发线程上最多回调一次
+ *
+ * 单线程分发的总线每次 commit 只回调一次；使用 {@link Dispatcher#pool(String, int)} 的总线，
+ * 关注的 key 分布在不同的分发线程上时，每个线程各回调一次，values 只包含该线程上的 key，
+ * 回调之间没有先后顺序
+ */
+public interface BatchObserver {
+
+  /**
+   * 在分发线程回调，此时本批次在该线程上的所有值都已生效
+   *
+   * @param values 本批次中该 Observer 关注的、位于当前分发线程上的 key 和对应的值
+   */
+  void onBatch(@NonNull Map<String, Object> values);
+}
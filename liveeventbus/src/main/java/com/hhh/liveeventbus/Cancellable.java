@@ -0,0 +1,14 @@
+package com.hhh.liveeventbus;
+
+/**
+ * 延迟发送的消息的句柄，可以在消息发送之前取消
+ */
+public interface Cancellable {
+
+  /**
+   * 取消发送，消息已经发送或已经取消时无效果
+   *
+   * @return 本次调用是否阻止了消息的发送
+   */
+  boolean cancel();
+}
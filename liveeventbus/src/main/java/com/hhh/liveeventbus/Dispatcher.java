@@ -0,0 +1,110 @@
+package com.hhh.liveeventbus;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 决定一个 LiveEventBus 实例上的事件在哪个线程分发
+ * 同一个 key 的事件始终在同一个 Looper 上分发，不同 key 可以分布到线程池的不同线程上并行分发
+ *
+ * 注意：非主线程的 Dispatcher，Observer 的回调也发生在对应的分发线程上
+ */
+public final class Dispatcher {
+
+  @NonNull
+  private final Handler[] mHandlers;
+  // 每个分发线程一个时间轮，承载该线程上所有的延迟消息
+  @NonNull
+  private final TimerWheel[] mTimerWheels;
+  // 由 Dispatcher 自己创建的线程，quit 时一并退出；外部传入的 Looper 不归 Dispatcher 管理
+  @NonNull
+  private final HandlerThread[] mThreads;
+
+  private Dispatcher(@NonNull Handler[] handlers, @NonNull HandlerThread[] threads) {
+    mHandlers = handlers;
+    mThreads = threads;
+    mTimerWheels = new TimerWheel[handlers.length];
+    for (int i = 0; i < handlers.length; i++) {
+      mTimerWheels[i] = new TimerWheel(handlers[i]);
+    }
+  }
+
+  /**
+   * 在主线程分发，LiveEventBus.getDefault() 使用的就是该分发器
+   */
+  @NonNull
+  public static Dispatcher main() {
+    return looper(Looper.getMainLooper());
+  }
+
+  /**
+   * 在指定的 Looper 上分发
+   */
+  @NonNull
+  public static Dispatcher looper(@NonNull Looper looper) {
+    return new Dispatcher(new Handler[] {new Handler(looper)}, new HandlerThread[0]);
+  }
+
+  /**
+   * 在一个专属的 HandlerThread 上分发
+   */
+  @NonNull
+  public static Dispatcher thread(@NonNull String name) {
+    return pool(name, 1);
+  }
+
+  /**
+   * 在 size 个专属的 HandlerThread 上分发，key 按 hash 固定分配到其中一个线程，
+   * 保证同一个 key 的消息顺序，不同 key 之间并行
+   */
+  @NonNull
+  public static Dispatcher pool(@NonNull String name, int size) {
+    if (size <= 0) {
+      throw new IllegalArgumentException("dispatcher pool size must be positive: " + size);
+    }
+    Handler[] handlers = new Handler[size];
+    HandlerThread[] threads = new HandlerThread[size];
+    for (int i = 0; i < size; i++) {
+      threads[i] = new HandlerThread(size == 1 ? name : name + "-" + i);
+      threads[i].start();
+      handlers[i] = new Handler(threads[i].getLooper());
+    }
+    return new Dispatcher(handlers, threads);
+  }
+
+  /**
+   * 分发线程的数量
+   */
+  public int size() {
+    return mHandlers.length;
+  }
+
+  /**
+   * 退出由该 Dispatcher 创建的线程，之后使用该 Dispatcher 的 LiveEventBus 不能再使用
+   */
+  public void quit() {
+    for (HandlerThread thread : mThreads) {
+      thread.quit();
+    }
+  }
+
+  @NonNull
+  Handler handlerFor(@NonNull String key) {
+    return mHandlers[indexFor(key)];
+  }
+
+  @NonNull
+  TimerWheel timerWheelFor(@NonNull String key) {
+    return mTimerWheels[indexFor(key)];
+  }
+
+  private int indexFor(@NonNull String key) {
+    if (mHandlers.length == 1) {
+      return 0;
+    }
+    return (key.hashCode() & Integer.MAX_VALUE) % mHandlers.length;
+  }
+}
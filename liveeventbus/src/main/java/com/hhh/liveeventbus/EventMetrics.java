@@ -0,0 +1,34 @@
+package com.hhh.liveeventbus;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个 LiveEventBus 实例的统计数据，各实例之间相互独立
+ */
+public final class EventMetrics {
+
+  private final AtomicLong mPostCount = new AtomicLong();
+  private final AtomicLong mDeliveryCount = new AtomicLong();
+
+  /**
+   * 发送的消息数量
+   */
+  public long getPostCount() {
+    return mPostCount.get();
+  }
+
+  /**
+   * 投递给 Observer 的次数，一条消息投递给 n 个 Observer 记为 n 次
+   */
+  public long getDeliveryCount() {
+    return mDeliveryCount.get();
+  }
+
+  void onPost() {
+    mPostCount.incrementAndGet();
+  }
+
+  void onDelivery() {
+    mDeliveryCount.incrementAndGet();
+  }
+}
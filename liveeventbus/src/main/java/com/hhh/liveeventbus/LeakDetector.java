@@ -0,0 +1,114 @@
+package com.hhh.liveeventbus;
+
+import static androidx.lifecycle.Lifecycle.State.DESTROYED;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.GenericLifecycleObserver;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.Observer;
+
+/**
+ * 调试用的内存泄漏检测，只建议在 debug 包中开启
+ *
+ * 开启后，通过 observeForever 或 observeStickyForever 注册 Observer 时，会通过反射查找 Observer
+ * 捕获的外部 LifecycleOwner（匿名内部类的外部 Activity、lambda 捕获的 Fragment 等），
+ * 该 LifecycleOwner 销毁 CHECK_DELAY 毫秒后 Observer 仍未反注册，则认为发生了泄漏
+ */
+public final class LeakDetector {
+
+  private static final long CHECK_DELAY = 5000L;
+  private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+  private static volatile Listener sListener;
+
+  private LeakDetector() {}
+
+  public interface Listener {
+    /**
+     * 在 key 所在的分发线程回调
+     */
+    void onLeak(@NonNull String key, @NonNull Observer<?> observer, @NonNull LifecycleOwner owner);
+  }
+
+  /**
+   * @param listener 传 null 关闭检测，已经在检测中的 Observer 不受影响
+   */
+  public static void install(@Nullable Listener listener) {
+    sListener = listener;
+  }
+
+  static void watch(@NonNull LiveEvent<?> liveEvent, @NonNull Observer<?> observer) {
+    Listener listener = sListener;
+    if (listener == null) {
+      return;
+    }
+    LifecycleOwner owner = findCapturedOwner(observer);
+    if (owner == null) {
+      return;
+    }
+    // 检测本身不能持有 Observer 和 LifecycleOwner
+    WeakReference<Observer<?>> observerReference = new WeakReference<>(observer);
+    WeakReference<LifecycleOwner> ownerReference = new WeakReference<>(owner);
+    MAIN_HANDLER.post(() -> {
+      if (owner.getLifecycle().getCurrentState() == DESTROYED) {
+        scheduleCheck(liveEvent, observerReference, ownerReference, listener);
+        return;
+      }
+      owner.getLifecycle().addObserver(new GenericLifecycleObserver() {
+        @Override
+        public void onStateChanged(LifecycleOwner source, Lifecycle.Event event) {
+          if (event == Lifecycle.Event.ON_DESTROY) {
+            source.getLifecycle().removeObserver(this);
+            scheduleCheck(liveEvent, observerReference, ownerReference, listener);
+          }
+        }
+      });
+    });
+  }
+
+  private static void scheduleCheck(@NonNull LiveEvent<?> liveEvent,
+      @NonNull WeakReference<Observer<?>> observerReference,
+      @NonNull WeakReference<LifecycleOwner> ownerReference, @NonNull Listener listener) {
+    MAIN_HANDLER.postDelayed(() -> liveEvent.getHandler().post(() -> {
+      Observer<?> observer = observerReference.get();
+      LifecycleOwner owner = ownerReference.get();
+      if (observer != null && owner != null && liveEvent.isObservingForever(observer)) {
+        listener.onLeak(liveEvent.getKey(), observer, owner);
+      }
+    }), CHECK_DELAY);
+  }
+
+  /**
+   * 只查找 Observer 自身直接持有的字段，包括 this$0 和 lambda 捕获的变量
+   */
+  @Nullable
+  private static LifecycleOwner findCapturedOwner(@NonNull Observer<?> observer) {
+    for (Class<?> clazz = observer.getClass(); clazz != null && clazz != Object.class;
+        clazz = clazz.getSuperclass()) {
+      for (Field field : clazz.getDeclaredFields()) {
+        if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+          continue;
+        }
+        try {
+          field.setAccessible(true);
+          Object value = field.get(observer);
+          if (value instanceof LifecycleOwner) {
+            return (LifecycleOwner) value;
+          }
+        } catch (IllegalAccessException | RuntimeException e) {
+          // 无法访问的字段直接跳过
+        }
+      }
+    }
+    return null;
+  }
+}
@@ -1,129 +1,361 @@
 package com.hhh.liveeventbus;
 
-import java.util.HashMap;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Message;
 
-import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.lifecycle.LifecycleOwner;
 import androidx.lifecycle.Observer;
 
-class LiveEvent<T> implements Observable<T> {
+/**
+ * 非分发线程的调用通过 Message 切换到分发线程，Message 来自系统的对象池，Observer 节点来自
+ * {@link ObserverNode} 的对象池，稳定状态下订阅、发送、反订阅都不会分配内存
+ * <p>
+ * 除 {@link Observable} 的方法以及 getKey、getHandler、isOrdered、offerBarrier 之外，包级和私有方法
+ * 都只在分发线程上调用，分发线程不一定是主线程
+ */
+class LiveEvent<T> implements Observable<T>, Handler.Callback {
 
-  private static final Handler HANDLER = new Handler(Looper.getMainLooper());
-  private final LiveEventData<T> mLiveData = new LiveEventData<>();
-  private final Map<Observer, ObserverWrapper<T>> mObserverMap = new HashMap<>();
+  private static final Object NOT_SET = new Object();
+  private static final int MSG_POST = 1;
+  private static final int MSG_OBSERVE = 2;
+  private static final int MSG_REMOVE = 3;
 
-  private static boolean isMainThread() {
-    return Looper.getMainLooper().getThread() == Thread.currentThread();
+  private final String mKey;
+  private final Handler mHandler;
+  private final TimerWheel mTimerWheel;
+  private final EventMetrics mMetrics;
+  private final LiveEventData<T> mLiveData;
+  // 弱引用注册的 Observer，key 被回收后 WeakHashMap 自动清理，LiveEventData 中的注册在分发时清理
+  private final Map<Observer<T>, WeakObserver<T>> mWeakObserverMap = new WeakHashMap<>();
+  private final ReferenceQueue<Observer<T>> mReferenceQueue = new ReferenceQueue<>();
+
+  // debounce 与 throttle 的状态，可能在任意线程修改
+  private final Object mDelayLock = new Object();
+  private Cancellable mDebounceTimeout;
+  private int mDebounceGeneration;
+  private Cancellable mThrottleTimeout;
+  private Object mThrottlePending = NOT_SET;
+  // 有序模式下非空，开启后不再关闭
+  private volatile SequencedQueue<T> mSequencedQueue;
+
+  LiveEvent(@NonNull String key, @NonNull Dispatcher dispatcher, @NonNull EventMetrics metrics) {
+    this(key, dispatcher, metrics, new LiveEventData<>(dispatcher.handlerFor(key)));
+  }
+
+  LiveEvent(@NonNull String key, @NonNull Dispatcher dispatcher, @NonNull EventMetrics metrics,
+      @NonNull LiveEventData<T> liveData) {
+    mKey = key;
+    // 每个 key 一个 Handler，Message 通过 callback 找到对应的 LiveEvent
+    mHandler = new Handler(dispatcher.handlerFor(key).getLooper(), this);
+    mTimerWheel = dispatcher.timerWheelFor(key);
+    mMetrics = metrics;
+    mLiveData = liveData;
+  }
+
+  private boolean isDispatchThread() {
+    return mHandler.getLooper() == Looper.myLooper();
   }
 
   @Override
   public void post(@Nullable T value) {
-    if (isMainThread()) {
+    mMetrics.onPost();
+    SequencedQueue<T> sequencedQueue = mSequencedQueue;
+    if (sequencedQueue != null) {
+      sequencedQueue.offer(value);
+    } else if (isDispatchThread()) {
       postInternal(value);
     } else {
-      HANDLER.post(() -> postInternal(value));
+      mHandler.obtainMessage(MSG_POST, value).sendToTarget();
     }
   }
 
+  @NonNull
   @Override
-  public void postDelay(@Nullable T value, long delay) {
-    HANDLER.postDelayed(() -> postInternal(value), delay);
+  public Cancellable postDelay(@Nullable T value, long delay) {
+    return mTimerWheel.schedule(() -> {
+      mMetrics.onPost();
+      dispatch(value);
+    }, delay);
   }
 
   @Override
-  public void postOrderly(@Nullable T value) {
-    HANDLER.post(() -> postInternal(value));
+  public void debounce(@Nullable T value, long window) {
+    synchronized (mDelayLock) {
+      if (mDebounceTimeout != null) {
+        mDebounceTimeout.cancel();
+      }
+      // 已经到期但还没来得及执行的任务无法取消，用 generation 让它失效
+      int generation = ++mDebounceGeneration;
+      mDebounceTimeout = mTimerWheel.schedule(() -> {
+        synchronized (mDelayLock) {
+          if (generation != mDebounceGeneration) {
+            return;
+          }
+          mDebounceTimeout = null;
+        }
+        mMetrics.onPost();
+        dispatch(value);
+      }, window);
+    }
   }
 
   @Override
-  public void observe(@NonNull final LifecycleOwner owner, @NonNull final Observer<T> observer) {
-    if (isMainThread()) {
-      observeInternal(owner, observer);
+  public void throttle(@Nullable T value, long window) {
+    synchronized (mDelayLock) {
+      if (mThrottleTimeout != null) {
+        mThrottlePending = value;
+        return;
+      }
+      mThrottleTimeout = mTimerWheel.schedule(() -> onThrottleWindowEnd(window), window);
+    }
+    post(value);
+  }
+
+  @Override
+  public void postOrderly(@Nullable T value) {
+    mMetrics.onPost();
+    SequencedQueue<T> sequencedQueue = mSequencedQueue;
+    if (sequencedQueue != null) {
+      sequencedQueue.offer(value);
     } else {
-      HANDLER.post(() -> observeInternal(owner, observer));
+      mHandler.obtainMessage(MSG_POST, value).sendToTarget();
+    }
+  }
+
+  @NonNull
+  @Override
+  public Observable<T> ordered() {
+    if (mSequencedQueue == null) {
+      synchronized (this) {
+        if (mSequencedQueue == null) {
+          mSequencedQueue = new SequencedQueue<>(mHandler::post, this::postInternal);
+        }
+      }
     }
+    return this;
+  }
+
+  @Override
+  public void observe(@NonNull final LifecycleOwner owner, @NonNull final Observer<T> observer) {
+    observe(ObserverNode.obtain(observer, owner, false, mMetrics));
   }
 
   @Override
   public void observeSticky(@NonNull final LifecycleOwner owner,
       @NonNull final Observer<T> observer) {
-    if (isMainThread()) {
-      observeStickyInternal(owner, observer);
-    } else {
-      HANDLER.post(() -> observeStickyInternal(owner, observer));
-    }
+    observe(ObserverNode.obtain(observer, owner, true, mMetrics));
   }
 
   @Override
   public void observeForever(@NonNull final Observer<T> observer) {
-    if (isMainThread()) {
-      observeForeverInternal(observer);
+    observe(ObserverNode.obtain(observer, null, false, mMetrics));
+  }
+
+  @Override
+  public void observeStickyForever(@NonNull final Observer<T> observer) {
+    observe(ObserverNode.obtain(observer, null, true, mMetrics));
+  }
+
+  @Override
+  public void observeForeverWeakly(@NonNull final Observer<T> observer) {
+    if (isDispatchThread()) {
+      observeWeaklyInternal(observer, false);
     } else {
-      HANDLER.post(() -> observeForeverInternal(observer));
+      mHandler.post(() -> observeWeaklyInternal(observer, false));
     }
   }
 
   @Override
-  public void observeStickyForever(@NonNull final Observer<T> observer) {
-    if (isMainThread()) {
-      observeStickyForeverInternal(observer);
+  public void observeStickyForeverWeakly(@NonNull final Observer<T> observer) {
+    if (isDispatchThread()) {
+      observeWeaklyInternal(observer, true);
     } else {
-      HANDLER.post(() -> observeStickyForeverInternal(observer));
+      mHandler.post(() -> observeWeaklyInternal(observer, true));
     }
   }
 
   @Override
   public void removeObserver(@NonNull final Observer<T> observer) {
-    if (isMainThread()) {
+    if (isDispatchThread()) {
       removeObserverInternal(observer);
     } else {
-      HANDLER.post(() -> removeObserverInternal(observer));
+      mHandler.obtainMessage(MSG_REMOVE, observer).sendToTarget();
+    }
+  }
+
+  @Override
+  public boolean handleMessage(@NonNull Message msg) {
+    switch (msg.what) {
+      case MSG_POST:
+        // noinspection unchecked
+        postInternal((T) msg.obj);
+        return true;
+      case MSG_OBSERVE:
+        // noinspection unchecked
+        observeInternal((ObserverNode<T>) msg.obj);
+        return true;
+      case MSG_REMOVE:
+        // noinspection unchecked
+        removeObserverInternal((Observer<T>) msg.obj);
+        return true;
+      default:
+        return false;
     }
   }
 
-  @MainThread
-  private void postInternal(T value) {
+  void postInternal(T value) {
+    purgeCollectedObservers();
+    onValueSet(value);
     mLiveData.setValue(value);
   }
 
-  @MainThread
-  private void observeInternal(@NonNull LifecycleOwner owner, @NonNull Observer<T> observer) {
-    ObserverWrapper<T> observerWrapper = new ObserverWrapper<>(observer);
-    observerWrapper.mPreventNextEvent = mLiveData.getVersion() > LiveEventData.START_VERSION;
-    mLiveData.observe(owner, observerWrapper);
+  /**
+   * 批量发送时先让所有 key 的值生效，再逐个调用 {@link #dispatchValue()} 通知 Observer
+   */
+  void setValueWithoutDispatch(T value) {
+    mMetrics.onPost();
+    purgeCollectedObservers();
+    onValueSet(value);
+    mLiveData.setValueWithoutDispatch(value);
+  }
+
+  void dispatchValue() {
+    mLiveData.dispatchValue();
+  }
+
+  /**
+   * 新的值在分发之前于分发线程回调
+   */
+  void onValueSet(T value) {}
+
+  boolean isOrdered() {
+    return mSequencedQueue != null;
+  }
+
+  /**
+   * 有序模式下在队列中放入屏障，支持任意线程调用，屏障之后的消息等到 {@link #resumeOrdered()} 再投递
+   */
+  void offerBarrier(@NonNull SequencedQueue.Barrier barrier) {
+    mSequencedQueue.offerBarrier(barrier);
+  }
+
+  void resumeOrdered() {
+    mSequencedQueue.resume();
+  }
+
+  @NonNull
+  String getKey() {
+    return mKey;
   }
 
-  @MainThread
-  private void observeStickyInternal(@NonNull LifecycleOwner owner, @NonNull Observer<T> observer) {
-    mLiveData.observe(owner, new ObserverWrapper<>(observer));
+  @NonNull
+  Handler getHandler() {
+    return mHandler;
   }
 
-  @MainThread
-  private void observeForeverInternal(@NonNull Observer<T> observer) {
-    ObserverWrapper<T> observerWrapper = new ObserverWrapper<>(observer);
-    observerWrapper.mPreventNextEvent = mLiveData.getVersion() > LiveEventData.START_VERSION;
-    mObserverMap.put(observer, observerWrapper);
-    mLiveData.observeForever(observerWrapper);
+  boolean isObservingForever(@NonNull Observer<?> observer) {
+    return mLiveData.isObservingForever(observer);
   }
 
-  @MainThread
-  private void observeStickyForeverInternal(@NonNull Observer<T> observer) {
-    ObserverWrapper<T> observerWrapper = new ObserverWrapper<>(observer);
-    mObserverMap.put(observer, observerWrapper);
-    mLiveData.observeForever(observerWrapper);
+  boolean hasObservers() {
+    return mLiveData.hasObservers();
+  }
+
+  /**
+   * 节流窗口结束时由时间轮在分发线程上回调
+   */
+  private void onThrottleWindowEnd(long window) {
+    Object pending;
+    synchronized (mDelayLock) {
+      pending = mThrottlePending;
+      mThrottlePending = NOT_SET;
+      if (pending == NOT_SET) {
+        mThrottleTimeout = null;
+        return;
+      }
+      // 窗口内有新消息，立即发送并开启下一个窗口
+      mThrottleTimeout = mTimerWheel.schedule(() -> onThrottleWindowEnd(window), window);
+    }
+    mMetrics.onPost();
+    // noinspection unchecked
+    dispatch((T) pending);
+  }
+
+  /**
+   * 在分发线程上发送到期的延迟消息，有序模式下同样需要排队，保证和之前发送的消息的顺序
+   */
+  private void dispatch(T value) {
+    SequencedQueue<T> sequencedQueue = mSequencedQueue;
+    if (sequencedQueue != null) {
+      sequencedQueue.offer(value);
+    } else {
+      postInternal(value);
+    }
+  }
+
+  private void observe(@NonNull ObserverNode<T> node) {
+    if (isDispatchThread()) {
+      observeInternal(node);
+    } else {
+      mHandler.obtainMessage(MSG_OBSERVE, node).sendToTarget();
+    }
+  }
+
+  private void observeInternal(@NonNull ObserverNode<T> node) {
+    // 注册失败时节点会被回收，提前取出需要的字段
+    Observer<T> observer = node.mObserver;
+    boolean forever = node.mOwner == null;
+    // 弱引用注册在 LiveEventData 中的 key 是 WeakObserver，需要单独检查，和 LiveEventData 的规则保持一致
+    if (mWeakObserverMap.containsKey(observer)) {
+      node.recycle();
+      if (!forever) {
+        throw new IllegalArgumentException(
+            "Cannot add the same observer" + " with different lifecycles");
+      }
+      return;
+    }
+    if (mLiveData.observe(node) && forever) {
+      LeakDetector.watch(this, observer);
+    }
+  }
+
+  private void observeWeaklyInternal(@NonNull Observer<T> observer, boolean sticky) {
+    if (mWeakObserverMap.containsKey(observer)) {
+      return;
+    }
+    if (mLiveData.isObserving(observer)) {
+      if (!mLiveData.isObservingForever(observer)) {
+        throw new IllegalArgumentException(
+            "Cannot add the same observer" + " with different lifecycles");
+      }
+      return;
+    }
+    WeakObserver<T> weakObserver = new WeakObserver<>(observer, mReferenceQueue);
+    if (mLiveData.observe(ObserverNode.obtain(weakObserver, null, sticky, mMetrics))) {
+      mWeakObserverMap.put(observer, weakObserver);
+    }
   }
 
-  @MainThread
   private void removeObserverInternal(@NonNull Observer<T> observer) {
-    if (mObserverMap.containsKey(observer)) {
-      observer = mObserverMap.remove(observer);
+    WeakObserver<T> weakObserver = mWeakObserverMap.remove(observer);
+    mLiveData.removeObserver(weakObserver != null ? weakObserver : observer);
+  }
+
+  /**
+   * 反注册已经被回收的弱引用 Observer，在每次分发前顺带执行
+   */
+  private void purgeCollectedObservers() {
+    Reference<? extends Observer<T>> reference;
+    while ((reference = mReferenceQueue.poll()) != null) {
+      mLiveData.removeObserver((WeakObserver<T>) reference);
     }
-    mLiveData.removeObserver(observer);
   }
 }
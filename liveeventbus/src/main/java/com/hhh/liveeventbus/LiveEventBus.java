@@ -1,11 +1,21 @@
 package com.hhh.liveeventbus;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
 
-import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 
 public class LiveEventBus {
@@ -16,6 +26,26 @@ public class LiveEventBus {
   private static volatile LiveEventBus DEFAULT_INSTANCE;
 
   private final Map<String, LiveEvent<Object>> mEventMap = new HashMap<>();
+  private final Dispatcher mDispatcher;
+  private final EventMetrics mMetrics = new EventMetrics();
+  private StickyJournal mJournal;
+  private final Object mBatchLock = new Object();
+  private final List<BatchObserverEntry> mBatchObservers = new CopyOnWriteArrayList<>();
+
+  /**
+   * 在主线程分发的总线，和 getDefault() 相互独立
+   */
+  public LiveEventBus() {
+    this(Dispatcher.main());
+  }
+
+  /**
+   * 创建一个独立的总线实例，拥有自己的事件表和统计数据，事件在 dispatcher 指定的线程上分发，
+   * 用于隔离不同的业务模块
+   */
+  public LiveEventBus(@NonNull Dispatcher dispatcher) {
+    mDispatcher = dispatcher;
+  }
 
   @NonNull
   public static LiveEventBus getDefault() {
@@ -33,7 +63,6 @@ public class LiveEventBus {
    * @param type 默认key为 type.getName()
    */
   @NonNull
-  @MainThread
   public <T> Observable<T> with(@NonNull Class<T> type) {
     return with(type.getName(), type);
   }
@@ -42,20 +71,240 @@ public class LiveEventBus {
    * 默认事件为Message，多用于进程间通信
    */
   @NonNull
-  @MainThread
   public Observable<Message> with(@NonNull String key) {
     return with(key, Message.class);
   }
 
   /**
-   * 之所以要求在主线程，是不想加锁，只要不是高并发，在子线程也不会有问题
+   * 支持任意线程调用，分片的总线本身就会在多个线程上使用
    */
   @NonNull
-  @MainThread
   public <T> Observable<T> with(@NonNull String key, @NonNull Class<T> type) {
-    if (!mEventMap.containsKey(key)) {
-      mEventMap.put(key, new LiveEvent<>());
+    return (Observable<T>) liveEventFor(key);
+  }
+
+  /**
+   * 开始一个批次，通过 {@link Batch#commit()} 原子地发送多个 key 的消息
+   */
+  @NonNull
+  public Batch beginBatch() {
+    return new Batch(this);
+  }
+
+  /**
+   * 注册一个关注多个 key 的 Observer，每次 commit 只回调一次，收到本批次中它关注的所有 key 的值
+   * 需要调用 removeBatchObserver 反注册
+   *
+   * 使用线程池分发的总线，关注的 key 位于不同分发线程时，每个线程各回调一次，只包含该线程上的 key
+   *
+   * 注意：只有 Batch 发送的消息会回调，单独 post 的消息不会
+   */
+  public void observeBatch(@NonNull BatchObserver observer, @NonNull String... keys) {
+    mBatchObservers.add(new BatchObserverEntry(observer, new HashSet<>(Arrays.asList(keys))));
+  }
+
+  public void removeBatchObserver(@NonNull BatchObserver observer) {
+    for (BatchObserverEntry entry : mBatchObservers) {
+      if (entry.mObserver == observer) {
+        mBatchObservers.remove(entry);
+      }
+    }
+  }
+
+  /**
+   * 开启粘性消息持久化，之后可以通过 withPersistent 获取持久化的 key，同一个文件只能被一个总线使用
+   *
+   * @param journalFile 持久化文件，不存在时会自动创建
+   */
+  public void enablePersistence(@NonNull File journalFile) throws IOException {
+    synchronized (mEventMap) {
+      if (mJournal != null) {
+        throw new IllegalStateException("persistence is already enabled");
+      }
+      mJournal = StickyJournal.open(journalFile);
+    }
+  }
+
+  /**
+   * @param type 默认key为 type.getName()
+   */
+  @NonNull
+  public <T> Observable<T> withPersistent(@NonNull Class<T> type,
+      @NonNull Serializer<T> serializer) {
+    return withPersistent(type.getName(), type, serializer);
+  }
+
+  /**
+   * 获取一个持久化的 key，发送的最新消息会写入持久化文件，进程重启后第一次访问该 key 时恢复，
+   * 通过 observeSticky 或 observeStickyForever 注册的 Observer 可以收到恢复的消息
+   *
+   * 需要先调用 enablePersistence，且该 key 之前不能通过 with 获取过，也不能先在 Batch 中提交过。
+   * 持久化的记录无法反序列化时只打印日志，该 key 从没有值开始
+   */
+  @NonNull
+  public <T> Observable<T> withPersistent(@NonNull String key, @NonNull Class<T> type,
+      @NonNull Serializer<T> serializer) {
+    StickyJournal journal;
+    synchronized (mEventMap) {
+      if (mJournal == null) {
+        throw new IllegalStateException("call enablePersistence before withPersistent");
+      }
+      LiveEvent<Object> liveEvent = mEventMap.get(key);
+      if (liveEvent != null) {
+        return (Observable<T>) checkPersistent(key, liveEvent);
+      }
+      journal = mJournal;
+    }
+    // 第一次访问时需要扫描日志并反序列化，不能持有 mEventMap 的锁，否则会阻塞其他 key 的 with
+    LiveEvent<Object> restored = (LiveEvent<Object>) PersistentLiveEvent.restore(key, mDispatcher,
+        mMetrics, journal, serializer);
+    synchronized (mEventMap) {
+      LiveEvent<Object> liveEvent = mEventMap.get(key);
+      if (liveEvent != null) {
+        // 其他线程先一步创建了该 key
+        return (Observable<T>) checkPersistent(key, liveEvent);
+      }
+      mEventMap.put(key, restored);
+      return (Observable<T>) restored;
+    }
+  }
+
+  @NonNull
+  private static LiveEvent<Object> checkPersistent(@NonNull String key,
+      @NonNull LiveEvent<Object> liveEvent) {
+    if (!(liveEvent instanceof PersistentLiveEvent)) {
+      throw new IllegalArgumentException("key " + key + " is already used without persistence");
+    }
+    return liveEvent;
+  }
+
+  @NonNull
+  private LiveEvent<Object> liveEventFor(@NonNull String key) {
+    synchronized (mEventMap) {
+      LiveEvent<Object> liveEvent = mEventMap.get(key);
+      if (liveEvent == null) {
+        liveEvent = new LiveEvent<>(key, mDispatcher, mMetrics);
+        mEventMap.put(key, liveEvent);
+      }
+      return liveEvent;
+    }
+  }
+
+  /**
+   * 按分发线程分组，每组只切换一次线程
+   * 组内有有序模式的 key 时，在这些 key 的有序队列中放入屏障，等之前发送的消息都投递后再生效
+   */
+  void commit(@NonNull Map<String, Object> values) {
+    Map<Handler, Map<String, Object>> groups = new HashMap<>();
+    for (Map.Entry<String, Object> entry : values.entrySet()) {
+      Handler handler = mDispatcher.handlerFor(entry.getKey());
+      Map<String, Object> group = groups.get(handler);
+      if (group == null) {
+        group = new LinkedHashMap<>();
+        groups.put(handler, group);
+      }
+      group.put(entry.getKey(), entry.getValue());
+    }
+    // 所有批次以相同的顺序放入屏障，两个批次不会互相等待对方的屏障
+    synchronized (mBatchLock) {
+      for (Map.Entry<Handler, Map<String, Object>> entry : groups.entrySet()) {
+        Map<String, Object> group = entry.getValue();
+        List<LiveEvent<Object>> orderedEvents = new ArrayList<>();
+        for (String key : group.keySet()) {
+          LiveEvent<Object> liveEvent = liveEventFor(key);
+          if (liveEvent.isOrdered()) {
+            orderedEvents.add(liveEvent);
+          }
+        }
+        if (!orderedEvents.isEmpty()) {
+          OrderedCommit orderedCommit = new OrderedCommit(group, orderedEvents);
+          for (LiveEvent<Object> liveEvent : orderedEvents) {
+            liveEvent.offerBarrier(orderedCommit);
+          }
+        } else if (entry.getKey().getLooper() == Looper.myLooper()) {
+          commitInternal(group);
+        } else {
+          entry.getKey().post(() -> commitInternal(group));
+        }
+      }
+    }
+  }
+
+  private void commitInternal(@NonNull Map<String, Object> values) {
+    List<LiveEvent<Object>> liveEvents = new ArrayList<>(values.size());
+    for (Map.Entry<String, Object> entry : values.entrySet()) {
+      LiveEvent<Object> liveEvent = liveEventFor(entry.getKey());
+      liveEvent.setValueWithoutDispatch(entry.getValue());
+      liveEvents.add(liveEvent);
+    }
+    // 所有的值都生效后再通知，Observer 读到的其他 key 已经是本批次的值
+    for (LiveEvent<Object> liveEvent : liveEvents) {
+      liveEvent.dispatchValue();
+    }
+    for (BatchObserverEntry entry : mBatchObservers) {
+      Map<String, Object> observed = null;
+      for (Map.Entry<String, Object> value : values.entrySet()) {
+        if (entry.mKeys.contains(value.getKey())) {
+          if (observed == null) {
+            observed = new LinkedHashMap<>();
+          }
+          observed.put(value.getKey(), value.getValue());
+        }
+      }
+      if (observed != null) {
+        entry.mObserver.onBatch(observed);
+      }
+    }
+  }
+
+  @NonNull
+  public Dispatcher getDispatcher() {
+    return mDispatcher;
+  }
+
+  @NonNull
+  public EventMetrics getMetrics() {
+    return mMetrics;
+  }
+
+  /**
+   * 组内所有有序 key 的屏障都到达后才让批次生效，在分发线程上回调，不需要同步
+   */
+  private final class OrderedCommit implements SequencedQueue.Barrier {
+    @NonNull
+    final Map<String, Object> mValues;
+    @NonNull
+    final List<LiveEvent<Object>> mOrderedEvents;
+    int mPendingBarriers;
+
+    OrderedCommit(@NonNull Map<String, Object> values,
+        @NonNull List<LiveEvent<Object>> orderedEvents) {
+      mValues = values;
+      mOrderedEvents = orderedEvents;
+      mPendingBarriers = orderedEvents.size();
+    }
+
+    @Override
+    public void onReached() {
+      if (--mPendingBarriers > 0) {
+        return;
+      }
+      commitInternal(mValues);
+      for (LiveEvent<Object> liveEvent : mOrderedEvents) {
+        liveEvent.resumeOrdered();
+      }
+    }
+  }
+
+  private static final class BatchObserverEntry {
+    @NonNull
+    final BatchObserver mObserver;
+    @NonNull
+    final Set<String> mKeys;
+
+    BatchObserverEntry(@NonNull BatchObserver observer, @NonNull Set<String> keys) {
+      mObserver = observer;
+      mKeys = keys;
     }
-    return (Observable<T>) mEventMap.get(key);
   }
 }
@@ -16,15 +16,11 @@ package com.hhh.liveeventbus;
 import static androidx.lifecycle.Lifecycle.State.DESTROYED;
 import static androidx.lifecycle.Lifecycle.State.STARTED;
 
-import java.util.Iterator;
-import java.util.Map;
+import android.os.Handler;
+import android.os.Looper;
 
-import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.arch.core.executor.ArchTaskExecutor;
-import androidx.arch.core.internal.SafeIterableMap;
-import androidx.lifecycle.GenericLifecycleObserver;
 import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.LifecycleOwner;
 import androidx.lifecycle.Observer;
@@ -54,15 +50,33 @@ import androidx.lifecycle.Observer;
  * <p>
  * This class is designed for sharing data between different modules in your application
  * in a decoupled fashion.
+ * <p>
+ * Unlike LiveData, values are set and dispatched on the looper of the {@link Handler} given to
+ * the constructor, which is not necessarily the main looper. Lifecycle callbacks still arrive on
+ * the main thread and are forwarded to that looper.
+ * <p>
+ * Observers are kept in pooled {@link ObserverNode}s linked in registration order and indexed
+ * by an open addressing table on observer identity, so registering, dispatching and removing
+ * do not allocate once the pool is warm.
  *
  * @param <T> The type of data held by this instance
  */
 class LiveEventData<T> {
   static final int START_VERSION = -1;
   private static final Object NOT_SET = new Object();
+  private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+  private static final int INITIAL_TABLE_SIZE = 8;
 
+  private final Handler mHandler;
   private final Object mDataLock = new Object();
-  private final SafeIterableMap<Observer<T>, ObserverWrapper> mObservers = new SafeIterableMap<>();
+  // observers in registration order. A node removed while dispatching keeps its mNext so that
+  // the ongoing iteration can step over it, and is only recycled once dispatching is over.
+  private ObserverNode<T> mHead;
+  private ObserverNode<T> mTail;
+  private ObserverNode<T> mPendingRecycle;
+  // open addressing table with linear probing, keyed by observer identity
+  private ObserverNode<T>[] mTable = newTable(INITIAL_TABLE_SIZE);
+  private int mSize;
 
   private int mVersion = START_VERSION;
   // how many observers are in active state
@@ -84,14 +98,44 @@ class LiveEventData<T> {
     setValue((T) newValue);
   };
 
-  private static void assertMainThread(String methodName) {
-    if (!ArchTaskExecutor.getInstance().isMainThread()) {
+  /**
+   * Creates a LiveEventData initialized with the given {@code value}, as if it was set once.
+   * Sticky observers receive it, others do not.
+   *
+   * @param handler the handler whose looper values are dispatched on
+   * @param value initial value
+   */
+  LiveEventData(@NonNull Handler handler, T value) {
+    mHandler = handler;
+    mData = value;
+    mVersion = START_VERSION + 1;
+  }
+
+  /**
+   * Creates a LiveEventData with no value assigned to it.
+   *
+   * @param handler the handler whose looper values are dispatched on
+   */
+  LiveEventData(@NonNull Handler handler) {
+    mHandler = handler;
+  }
+
+  private static boolean isMainThread() {
+    return Looper.getMainLooper() == Looper.myLooper();
+  }
+
+  private boolean isDispatchThread() {
+    return mHandler.getLooper() == Looper.myLooper();
+  }
+
+  private void assertDispatchThread(String methodName) {
+    if (!isDispatchThread()) {
       throw new IllegalStateException(
-          "Cannot invoke " + methodName + " on a background" + " thread");
+          "Cannot invoke " + methodName + " outside of the dispatch" + " thread");
     }
   }
 
-  private void considerNotify(ObserverWrapper observer) {
+  private void considerNotify(ObserverNode<T> observer) {
     if (!observer.mActive) {
       return;
     }
@@ -100,8 +144,8 @@ class LiveEventData<T> {
     // we still first check observer.active to keep it as the entrance for events. So even if
     // the observer moved to an active state, if we've not received that event, we better not
     // notify for a more predictable notification order.
-    if (!observer.shouldBeActive()) {
-      observer.activeStateChanged(false);
+    if (!shouldBeActive(observer)) {
+      activeStateChanged(observer, false);
       return;
     }
     if (observer.mLastVersion >= mVersion) {
@@ -109,10 +153,10 @@ class LiveEventData<T> {
     }
     observer.mLastVersion = mVersion;
     // noinspection unchecked
-    observer.mObserver.onChanged((T) mData);
+    observer.onChanged((T) mData);
   }
 
-  private void dispatchingValue(@Nullable ObserverWrapper initiator) {
+  private void dispatchingValue(@Nullable ObserverNode<T> initiator) {
     if (mDispatchingValue) {
       mDispatchInvalidated = true;
       return;
@@ -124,9 +168,10 @@ class LiveEventData<T> {
         considerNotify(initiator);
         initiator = null;
       } else {
-        for (Iterator<Map.Entry<Observer<T>, ObserverWrapper>> iterator =
-            mObservers.iteratorWithAdditions(); iterator.hasNext();) {
-          considerNotify(iterator.next().getValue());
+        for (ObserverNode<T> node = mHead; node != null; node = node.mNext) {
+          if (node.mAttached) {
+            considerNotify(node);
+          }
           if (mDispatchInvalidated) {
             break;
           }
@@ -134,117 +179,152 @@ class LiveEventData<T> {
       }
     } while (mDispatchInvalidated);
     mDispatchingValue = false;
+    while (mPendingRecycle != null) {
+      ObserverNode<T> node = mPendingRecycle;
+      mPendingRecycle = node.mNextPending;
+      node.recycle();
+    }
   }
 
   /**
-   * Adds the given observer to the observers list within the lifespan of the given
-   * owner. The events are dispatched on the main thread. If LiveEventData already has data
-   * set, it will be delivered to the observer.
-   * <p>
-   * The observer will only receive events if the owner is in {@link Lifecycle.State#STARTED}
-   * or {@link Lifecycle.State#RESUMED} state (active).
-   * <p>
-   * If the owner moves to the {@link Lifecycle.State#DESTROYED} state, the observer will
-   * automatically be removed.
+   * Adds the given node to the observers list. If the node has an owner, the observer lives within
+   * the lifespan of that owner, otherwise it is always active.
    * <p>
+   * An observer with an owner will only receive events if the owner is in
+   * {@link Lifecycle.State#STARTED} or {@link Lifecycle.State#RESUMED} state (active), and is
+   * automatically removed when the owner moves to the {@link Lifecycle.State#DESTROYED} state.
    * When data changes while the {@code owner} is not active, it will not receive any updates.
    * If it becomes active again, it will receive the last available data automatically.
    * <p>
-   * LiveEventData keeps a strong reference to the observer and the owner as long as the
-   * given LifecycleOwner is not destroyed. When it is destroyed, LiveEventData removes references
-   * to
-   * the observer &amp; the owner.
+   * An observer without an owner will receive all events and will never be automatically
+   * removed. You should manually call {@link #removeObserver(Observer)} to stop observing.
+   * While LiveEventData has one of such observers, it will be considered as active.
    * <p>
-   * If the given owner is already in {@link Lifecycle.State#DESTROYED} state, LiveEventData
-   * ignores the call.
+   * Unless the node is sticky, the value set before registering is not delivered.
    * <p>
-   * If the given owner, observer tuple is already in the list, the call is ignored.
+   * If the given owner is already in {@link Lifecycle.State#DESTROYED} state, or the observer is
+   * already in the list with the same owner, the call is ignored and the node is recycled.
    * If the observer is already in the list with another owner, LiveEventData throws an
    * {@link IllegalArgumentException}.
    *
-   * @param owner The LifecycleOwner which controls the observer
-   * @param observer The observer that will receive the events
+   * <p>
+   * This method must be called from the dispatch thread.
+   *
+   * @param node The node holding the observer, its owner and whether it is sticky
+   * @return true if the observer was added
    */
-  @MainThread
-  public void observe(@NonNull LifecycleOwner owner, @NonNull Observer<T> observer) {
-    if (owner.getLifecycle().getCurrentState() == DESTROYED) {
+  boolean observe(@NonNull ObserverNode<T> node) {
+    assertDispatchThread("observe");
+    LifecycleOwner owner = node.mOwner;
+    if (owner != null && owner.getLifecycle().getCurrentState() == DESTROYED) {
       // ignore
-      return;
-    }
-    LifecycleBoundObserver wrapper = new LifecycleBoundObserver(owner, observer);
-    ObserverWrapper existing = mObservers.putIfAbsent(observer, wrapper);
-    if (existing != null && !existing.isAttachedTo(owner)) {
-      throw new IllegalArgumentException(
-          "Cannot add the same observer" + " with different lifecycles");
+      node.recycle();
+      return false;
     }
+    ObserverNode<T> existing = find(node.mObserver);
     if (existing != null) {
-      return;
+      node.recycle();
+      if (existing.mOwner != owner) {
+        throw new IllegalArgumentException(
+            "Cannot add the same observer" + " with different lifecycles");
+      }
+      return false;
     }
-    owner.getLifecycle().addObserver(wrapper);
-  }
-
-  /**
-   * Adds the given observer to the observers list. This call is similar to
-   * {@link LiveEventData#observe(LifecycleOwner, Observer)} with a LifecycleOwner, which
-   * is always active. This means that the given observer will receive all events and will never
-   * be automatically removed. You should manually call {@link #removeObserver(Observer)} to stop
-   * observing this LiveEventData.
-   * While LiveEventData has one of such observers, it will be considered
-   * as active.
-   * <p>
-   * If the observer was already added with an owner to this LiveEventData, LiveEventData throws an
-   * {@link IllegalArgumentException}.
-   *
-   * @param observer The observer that will receive the events
-   */
-  @MainThread
-  public void observeForever(@NonNull Observer<T> observer) {
-    AlwaysActiveObserver wrapper = new AlwaysActiveObserver(observer);
-    ObserverWrapper existing = mObservers.putIfAbsent(observer, wrapper);
-    if (existing instanceof LiveEventData.LifecycleBoundObserver) {
-      throw new IllegalArgumentException(
-          "Cannot add the same observer" + " with different lifecycles");
+    node.mLiveData = this;
+    node.mPreventNextEvent = !node.mSticky && mVersion > START_VERSION;
+    node.mAttached = true;
+    insert(node);
+    if (mTail == null) {
+      mHead = node;
+    } else {
+      mTail.mNext = node;
+      node.mPrev = mTail;
     }
-    if (existing != null) {
-      return;
+    mTail = node;
+    if (owner == null) {
+      activeStateChanged(node, true);
+    } else {
+      attachObserver(node);
     }
-    wrapper.activeStateChanged(true);
+    return true;
   }
 
   /**
-   * Removes the given observer from the observers list.
+   * Removes the given observer from the observers list. Must be called from the dispatch thread.
    *
    * @param observer The Observer to receive events.
    */
-  @MainThread
   public void removeObserver(@NonNull final Observer<T> observer) {
-    assertMainThread("removeObserver");
-    ObserverWrapper removed = mObservers.remove(observer);
+    assertDispatchThread("removeObserver");
+    ObserverNode<T> removed = delete(observer);
     if (removed == null) {
       return;
     }
-    removed.detachObserver();
-    removed.activeStateChanged(false);
+    if (removed.mPrev == null) {
+      mHead = removed.mNext;
+    } else {
+      removed.mPrev.mNext = removed.mNext;
+    }
+    if (removed.mNext == null) {
+      mTail = removed.mPrev;
+    } else {
+      removed.mNext.mPrev = removed.mPrev;
+    }
+    // keep mNext, an ongoing dispatch may be standing on this node
+    removed.mPrev = null;
+    removed.mAttached = false;
+    boolean detached = detachObserver(removed);
+    activeStateChanged(removed, false);
+    if (!detached) {
+      // still referenced by a pending lifecycle task, leave it to the GC
+      return;
+    }
+    if (mDispatchingValue) {
+      removed.mNextPending = mPendingRecycle;
+      mPendingRecycle = removed;
+    } else {
+      removed.recycle();
+    }
+  }
+
+  /**
+   * Returns true if the given observer was added, with or without an owner. Must be called from
+   * the dispatch thread.
+   */
+  boolean isObserving(@NonNull Observer<?> observer) {
+    return find(observer) != null;
+  }
+
+  /**
+   * Returns true if the given observer was added without an owner. Must be called from the
+   * dispatch thread.
+   */
+  boolean isObservingForever(@NonNull Observer<?> observer) {
+    ObserverNode<T> node = find(observer);
+    return node != null && node.mOwner == null;
   }
 
   /**
-   * Removes all observers that are tied to the given {@link LifecycleOwner}.
+   * Removes all observers that are tied to the given {@link LifecycleOwner}. Must be called from
+   * the dispatch thread.
    *
    * @param owner The {@code LifecycleOwner} scope for the observers to be removed.
    */
   @SuppressWarnings("WeakerAccess")
-  @MainThread
   public void removeObservers(@NonNull final LifecycleOwner owner) {
-    assertMainThread("removeObservers");
-    for (Map.Entry<Observer<T>, ObserverWrapper> entry : mObservers) {
-      if (entry.getValue().isAttachedTo(owner)) {
-        removeObserver(entry.getKey());
+    assertDispatchThread("removeObservers");
+    ObserverNode<T> node = mHead;
+    while (node != null) {
+      ObserverNode<T> next = node.mNext;
+      if (node.mOwner == owner) {
+        removeObserver(node.mObserver);
       }
+      node = next;
     }
   }
 
   /**
-   * Posts a task to a main thread to set the given value. So if you have a following code
+   * Posts a task to the dispatch thread to set the given value. So if you have a following code
    * executed in the main thread:
    * 
    * <pre class="prettyprint">
@@ -269,7 +349,7 @@ class LiveEventData<T> {
     if (!postTask) {
       return;
     }
-    ArchTaskExecutor.getInstance().postToMainThread(mPostValueRunnable);
+    mHandler.post(mPostValueRunnable);
   }
 
   /**
@@ -292,19 +372,40 @@ class LiveEventData<T> {
   /**
    * Sets the value. If there are active observers, the value will be dispatched to them.
    * <p>
-   * This method must be called from the main thread. If you need set a value from a background
+   * This method must be called from the dispatch thread. If you need set a value from another
    * thread, you can use {@link #postValue(Object)}
    *
    * @param value The new value
    */
-  @MainThread
   protected void setValue(T value) {
-    assertMainThread("setValue");
+    assertDispatchThread("setValue");
     mVersion++;
     mData = value;
     dispatchingValue(null);
   }
 
+  /**
+   * Sets the value without notifying observers, {@link #dispatchValue()} must be called later.
+   * Used to apply several values before any observer sees one of them. Must be called from the
+   * dispatch thread.
+   *
+   * @param value The new value
+   */
+  void setValueWithoutDispatch(T value) {
+    assertDispatchThread("setValueWithoutDispatch");
+    mVersion++;
+    mData = value;
+  }
+
+  /**
+   * Dispatches the current value to observers that have not received it yet. Must be called from
+   * the dispatch thread.
+   */
+  void dispatchValue() {
+    assertDispatchThread("dispatchValue");
+    dispatchingValue(null);
+  }
+
   int getVersion() {
     return mVersion;
   }
@@ -339,7 +440,7 @@ class LiveEventData<T> {
    */
   @SuppressWarnings("WeakerAccess")
   public boolean hasObservers() {
-    return mObservers.size() > 0;
+    return mSize > 0;
   }
 
   /**
@@ -352,87 +453,149 @@ class LiveEventData<T> {
     return mActiveCount > 0;
   }
 
-  class LifecycleBoundObserver extends ObserverWrapper implements GenericLifecycleObserver {
-    @NonNull
-    final LifecycleOwner mOwner;
+  private boolean shouldBeActive(@NonNull ObserverNode<T> node) {
+    return node.mOwner == null || node.mOwner.getLifecycle().getCurrentState().isAtLeast(STARTED);
+  }
 
-    LifecycleBoundObserver(@NonNull LifecycleOwner owner, Observer<T> observer) {
-      super(observer);
-      mOwner = owner;
+  void onStateChanged(@NonNull ObserverNode<T> node) {
+    if (!isDispatchThread()) {
+      mHandler.post(() -> onStateChanged(node));
+      return;
     }
-
-    @Override
-    boolean shouldBeActive() {
-      return mOwner.getLifecycle().getCurrentState().isAtLeast(STARTED);
+    if (!node.mAttached) {
+      return;
+    }
+    if (node.mOwner.getLifecycle().getCurrentState() == DESTROYED) {
+      removeObserver(node.mObserver);
+      return;
     }
+    activeStateChanged(node, shouldBeActive(node));
+  }
 
-    @Override
-    public void onStateChanged(LifecycleOwner source, Lifecycle.Event event) {
-      if (mOwner.getLifecycle().getCurrentState() == DESTROYED) {
-        removeObserver(mObserver);
+  // Lifecycle is not thread safe, so (un)registering always happens on the main thread.
+  private void attachObserver(@NonNull ObserverNode<T> node) {
+    LifecycleOwner owner = node.mOwner;
+    if (isMainThread()) {
+      owner.getLifecycle().addObserver(node);
+      return;
+    }
+    Observer<T> observer = node.mObserver;
+    MAIN_HANDLER.post(() -> {
+      if (owner.getLifecycle().getCurrentState() == DESTROYED) {
+        // the owner was destroyed before we could register, no event will remove us
+        mHandler.post(() -> removeObserver(observer));
         return;
       }
-      activeStateChanged(shouldBeActive());
-    }
+      owner.getLifecycle().addObserver(node);
+    });
+  }
 
-    @Override
-    boolean isAttachedTo(LifecycleOwner owner) {
-      return mOwner == owner;
+  /**
+   * @return true if no one else holds the node anymore, so that it can be recycled
+   */
+  private boolean detachObserver(@NonNull ObserverNode<T> node) {
+    LifecycleOwner owner = node.mOwner;
+    if (owner == null) {
+      return true;
     }
-
-    @Override
-    void detachObserver() {
-      mOwner.getLifecycle().removeObserver(this);
+    if (isMainThread()) {
+      owner.getLifecycle().removeObserver(node);
+      return true;
     }
+    MAIN_HANDLER.post(() -> owner.getLifecycle().removeObserver(node));
+    return false;
   }
 
-  private abstract class ObserverWrapper {
-    final Observer<T> mObserver;
-    boolean mActive;
-    int mLastVersion = START_VERSION;
-
-    ObserverWrapper(Observer<T> observer) {
-      mObserver = observer;
+  private void activeStateChanged(@NonNull ObserverNode<T> node, boolean newActive) {
+    if (newActive == node.mActive) {
+      return;
     }
-
-    abstract boolean shouldBeActive();
-
-    boolean isAttachedTo(LifecycleOwner owner) {
-      return false;
+    // immediately set active state, so we'd never dispatch anything to inactive
+    // owner
+    node.mActive = newActive;
+    boolean wasInactive = mActiveCount == 0;
+    mActiveCount += newActive ? 1 : -1;
+    if (wasInactive && newActive) {
+      onActive();
+    }
+    if (mActiveCount == 0 && !newActive) {
+      onInactive();
+    }
+    if (newActive) {
+      dispatchingValue(node);
     }
+  }
 
-    void detachObserver() {}
+  @SuppressWarnings("unchecked")
+  private static <T> ObserverNode<T>[] newTable(int size) {
+    return (ObserverNode<T>[]) new ObserverNode[size];
+  }
 
-    void activeStateChanged(boolean newActive) {
-      if (newActive == mActive) {
-        return;
-      }
-      // immediately set active state, so we'd never dispatch anything to inactive
-      // owner
-      mActive = newActive;
-      boolean wasInactive = LiveEventData.this.mActiveCount == 0;
-      LiveEventData.this.mActiveCount += mActive ? 1 : -1;
-      if (wasInactive && mActive) {
-        onActive();
-      }
-      if (LiveEventData.this.mActiveCount == 0 && !mActive) {
-        onInactive();
-      }
-      if (mActive) {
-        dispatchingValue(this);
+  private static int indexFor(@NonNull Object observer, int mask) {
+    int hash = System.identityHashCode(observer);
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  @Nullable
+  private ObserverNode<T> find(@NonNull Object observer) {
+    int mask = mTable.length - 1;
+    for (int i = indexFor(observer, mask); mTable[i] != null; i = (i + 1) & mask) {
+      if (mTable[i].mObserver == observer) {
+        return mTable[i];
       }
     }
+    return null;
   }
 
-  private class AlwaysActiveObserver extends ObserverWrapper {
+  private void insert(@NonNull ObserverNode<T> node) {
+    if ((mSize + 1) * 2 > mTable.length) {
+      ObserverNode<T>[] oldTable = mTable;
+      mTable = newTable(oldTable.length * 2);
+      for (ObserverNode<T> old : oldTable) {
+        if (old != null) {
+          put(old);
+        }
+      }
+    }
+    put(node);
+    mSize++;
+  }
 
-    AlwaysActiveObserver(Observer<T> observer) {
-      super(observer);
+  private void put(@NonNull ObserverNode<T> node) {
+    int mask = mTable.length - 1;
+    int i = indexFor(node.mObserver, mask);
+    while (mTable[i] != null) {
+      i = (i + 1) & mask;
     }
+    mTable[i] = node;
+  }
 
-    @Override
-    boolean shouldBeActive() {
-      return true;
+  /**
+   * Removes the node of the given observer from the table, shifting back the following entries
+   * of the probe sequence so that no tombstone is needed.
+   */
+  @Nullable
+  private ObserverNode<T> delete(@NonNull Object observer) {
+    int mask = mTable.length - 1;
+    int i = indexFor(observer, mask);
+    while (mTable[i] != null && mTable[i].mObserver != observer) {
+      i = (i + 1) & mask;
+    }
+    ObserverNode<T> removed = mTable[i];
+    if (removed == null) {
+      return null;
+    }
+    mTable[i] = null;
+    mSize--;
+    for (int j = (i + 1) & mask; mTable[j] != null; j = (j + 1) & mask) {
+      int home = indexFor(mTable[j].mObserver, mask);
+      // move the entry into the hole unless its home slot lies cyclically in (i, j]
+      if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+        mTable[i] = mTable[j];
+        mTable[j] = null;
+        i = j;
+      }
     }
+    return removed;
   }
 }
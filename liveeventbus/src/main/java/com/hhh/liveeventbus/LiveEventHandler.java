@@ -28,6 +28,7 @@ public class LiveEventHandler extends Handler {
     if (TextUtils.isEmpty(key)) {
       throw new RuntimeException("ipc event key cannot be empty!!!");
     }
-    mLiveEventBus.with(key).post(msg);
+    // Looper 在 handleMessage 返回后会回收 msg，非主线程分发或有序模式下 post 是异步的，需要发送副本
+    mLiveEventBus.with(key).post(Message.obtain(msg));
   }
 }
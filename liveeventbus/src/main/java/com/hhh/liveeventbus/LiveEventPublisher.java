@@ -0,0 +1,202 @@
+package com.hhh.liveeventbus;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.Observer;
+
+/**
+ * 把一个 Observable 适配为 Reactive Streams 的 Publisher，按 request(n) 的需求量发送消息
+ *
+ * 每次订阅通过 observeForever 注册一个 Observer，cancel 时通过 removeObserver 反注册；
+ * 需求量不足时消息先放入缓冲区，缓冲区满时按 {@link BackpressureStrategy} 处理。
+ * Reactive Streams 不允许发送 null，发送 null 的消息会被忽略。
+ * 该 Publisher 不会主动结束，需要订阅方 cancel
+ *
+ * 需要自行依赖 org.reactivestreams:reactive-streams
+ */
+public final class LiveEventPublisher<T> implements Publisher<T> {
+
+  private static final int DEFAULT_BUFFER_SIZE = 128;
+
+  public enum BackpressureStrategy {
+    /**
+     * 缓冲区满时通过 onError 通知订阅方并取消订阅
+     */
+    ERROR,
+    /**
+     * 缓冲区满时丢弃最旧的消息
+     */
+    DROP_OLDEST,
+    /**
+     * 只保留最新的一个消息（合并），忽略 bufferSize
+     */
+    LATEST
+  }
+
+  @NonNull
+  private final Observable<T> mObservable;
+  private final int mBufferSize;
+  @NonNull
+  private final BackpressureStrategy mStrategy;
+
+  private LiveEventPublisher(@NonNull Observable<T> observable, int bufferSize,
+      @NonNull BackpressureStrategy strategy) {
+    mObservable = observable;
+    mBufferSize = bufferSize;
+    mStrategy = strategy;
+  }
+
+  /**
+   * 缓冲区大小为 128，溢出时 onError
+   */
+  @NonNull
+  public static <T> Publisher<T> from(@NonNull Observable<T> observable) {
+    return from(observable, DEFAULT_BUFFER_SIZE, BackpressureStrategy.ERROR);
+  }
+
+  @NonNull
+  public static <T> Publisher<T> from(@NonNull Observable<T> observable, int bufferSize,
+      @NonNull BackpressureStrategy strategy) {
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("buffer size must be positive: " + bufferSize);
+    }
+    return new LiveEventPublisher<>(observable, bufferSize, strategy);
+  }
+
+  @Override
+  public void subscribe(Subscriber<? super T> subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException("subscriber is null");
+    }
+    LiveEventSubscription<T> subscription = new LiveEventSubscription<>(subscriber, this);
+    subscriber.onSubscribe(subscription);
+    subscription.start();
+  }
+
+  private static final class LiveEventSubscription<T> implements Subscription, Observer<T> {
+
+    @NonNull
+    private final Subscriber<? super T> mSubscriber;
+    @NonNull
+    private final LiveEventPublisher<T> mPublisher;
+    private final ArrayDeque<T> mQueue = new ArrayDeque<>();
+    private final AtomicLong mRequested = new AtomicLong();
+    // 保证 onNext、onError 串行调用
+    private final AtomicInteger mWip = new AtomicInteger();
+    private volatile boolean mCancelled;
+    private volatile Throwable mError;
+
+    LiveEventSubscription(@NonNull Subscriber<? super T> subscriber,
+        @NonNull LiveEventPublisher<T> publisher) {
+      mSubscriber = subscriber;
+      mPublisher = publisher;
+    }
+
+    void start() {
+      if (!mCancelled) {
+        mPublisher.mObservable.observeForever(this);
+      }
+    }
+
+    @Override
+    public void onChanged(@Nullable T value) {
+      if (mCancelled) {
+        // 取消时注册还没有生效，在这里补上反注册
+        mPublisher.mObservable.removeObserver(this);
+        return;
+      }
+      if (value == null) {
+        return;
+      }
+      synchronized (mQueue) {
+        if (mPublisher.mStrategy == BackpressureStrategy.LATEST) {
+          mQueue.clear();
+        } else if (mQueue.size() >= mPublisher.mBufferSize) {
+          if (mPublisher.mStrategy == BackpressureStrategy.ERROR) {
+            mError = new IllegalStateException(
+                "buffer of " + mPublisher.mBufferSize + " overflowed, subscriber is too slow");
+          } else {
+            mQueue.poll();
+          }
+        }
+        if (mError == null) {
+          mQueue.offer(value);
+        }
+      }
+      drain();
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        mError = new IllegalArgumentException("request must be positive: " + n);
+      } else {
+        long current;
+        long next;
+        do {
+          current = mRequested.get();
+          next = current + n < 0 ? Long.MAX_VALUE : current + n;
+        } while (!mRequested.compareAndSet(current, next));
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      if (mCancelled) {
+        return;
+      }
+      mCancelled = true;
+      Observable<T> observable = mPublisher.mObservable;
+      observable.removeObserver(this);
+      if (observable instanceof LiveEvent) {
+        // subscribe 在其他线程调用时注册还在分发线程的队列中，排在它后面再反注册一次，
+        // 否则取消后的 Subscription 会一直被持有
+        ((LiveEvent<T>) observable).getHandler().post(() -> observable.removeObserver(this));
+      }
+      synchronized (mQueue) {
+        mQueue.clear();
+      }
+    }
+
+    private void drain() {
+      if (mWip.getAndIncrement() != 0) {
+        return;
+      }
+      int missed = 1;
+      do {
+        while (!mCancelled) {
+          Throwable error = mError;
+          if (error != null) {
+            cancel();
+            mSubscriber.onError(error);
+            return;
+          }
+          if (mRequested.get() == 0) {
+            break;
+          }
+          T value;
+          synchronized (mQueue) {
+            value = mQueue.poll();
+          }
+          if (value == null) {
+            break;
+          }
+          if (mRequested.get() != Long.MAX_VALUE) {
+            mRequested.decrementAndGet();
+          }
+          mSubscriber.onNext(value);
+        }
+        missed = mWip.addAndGet(-missed);
+      } while (missed != 0);
+    }
+  }
+}
@@ -14,8 +14,22 @@ public interface Observable<T> {
 
   /**
    * 延迟发送一个消息，支持前、后台线程发送
+   * 延迟精度为10ms，可以通过返回的 Cancellable 在发送前取消
    */
-  void postDelay(@Nullable T value, long delay);
+  @NonNull
+  Cancellable postDelay(@Nullable T value, long delay);
+
+  /**
+   * 防抖发送一个消息，支持前、后台线程发送
+   * window 时间内没有新的 debounce 调用时才发送，新的调用会替换掉还未发送的消息，适用于输入联想、自动保存
+   */
+  void debounce(@Nullable T value, long window);
+
+  /**
+   * 节流发送一个消息，支持前、后台线程发送
+   * 第一个消息立即发送，之后 window 时间内最多再发送一次：窗口期内的消息只保留最新的一个，在窗口结束时发送
+   */
+  void throttle(@Nullable T value, long window);
 
   /**
    * 发送一个消息，支持前、后台线程发送
@@ -23,6 +37,18 @@ public interface Observable<T> {
    */
   void postOrderly(@Nullable T value);
 
+  /**
+   * 开启有序投递模式，开启后不能关闭，应在发送消息之前调用
+   * post、postOrderly 在调用处分配序号，无论在哪个线程调用，Observer 都严格按序号先进先出地收到每一个消息，
+   * 不会丢失、重排或被后来的消息覆盖；代价是在分发线程上调用 post 也不再同步分发
+   * 通过 {@link Batch} 发送时，批次在 commit 处同样占用一个序号，该 key 之前发送的消息都投递后批次才生效，
+   * 之后发送的消息等批次生效后再投递；批次中其他 key 的值也随之推迟生效
+   *
+   * @return this，方便链式调用
+   */
+  @NonNull
+  Observable<T> ordered();
+
   /**
    * 注册一个Observer，生命周期感知，自动取消订阅
    */
@@ -49,7 +75,19 @@ public interface Observable<T> {
   void observeStickyForever(@NonNull Observer<T> observer);
 
   /**
-   * 通过 observeForever 或 observeStickyForever 注册的，可以调用该方法取消订阅
+   * 注册一个弱引用持有的Observer，不会自动反注册，但Observer被回收后会在下次分发消息时自动清理，不会造成内存泄漏
+   * 注意需要由调用方持有Observer的强引用，否则Observer可能随时被回收而收不到消息
+   */
+  void observeForeverWeakly(@NonNull Observer<T> observer);
+
+  /**
+   * 同 {@link #observeForeverWeakly(Observer)}
+   * 如果之前有消息发送，可以在注册时收到消息（消息同步）
+   */
+  void observeStickyForeverWeakly(@NonNull Observer<T> observer);
+
+  /**
+   * 通过 observeForever、observeStickyForever 及其弱引用版本注册的，可以调用该方法取消订阅
    */
   void removeObserver(@NonNull Observer<T> observer);
 }
@@ -0,0 +1,110 @@
+package com.hhh.liveeventbus;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.GenericLifecycleObserver;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.Observer;
+
+/**
+ * 一次订阅在 LiveEventData 中对应的节点，同时承担生命周期监听、active 状态、版本号和
+ * "忽略注册前的消息" 标记，节点通过对象池复用，稳定状态下订阅、发送、反订阅都不会分配内存
+ *
+ * 除 obtain 与 recycle 外，只在分发线程上访问
+ */
+final class ObserverNode<T> implements GenericLifecycleObserver {
+
+  private static final int MAX_POOL_SIZE = 128;
+  private static final Object POOL_LOCK = new Object();
+  private static ObserverNode<?> sPool;
+  private static int sPoolSize;
+
+  Observer<T> mObserver;
+  // 为 null 时始终处于 active 状态
+  @Nullable
+  LifecycleOwner mOwner;
+  EventMetrics mMetrics;
+  boolean mSticky;
+
+  // 以下字段在注册到 LiveEventData 后由其维护
+  LiveEventData<T> mLiveData;
+  boolean mAttached;
+  boolean mActive;
+  int mLastVersion = LiveEventData.START_VERSION;
+  boolean mPreventNextEvent;
+  ObserverNode<T> mPrev;
+  ObserverNode<T> mNext;
+  // 分发过程中被移除、等待分发结束后回收的节点
+  ObserverNode<T> mNextPending;
+
+  // 对象池中的下一个节点
+  private ObserverNode<?> mNextPooled;
+
+  private ObserverNode() {}
+
+  @NonNull
+  static <T> ObserverNode<T> obtain(@NonNull Observer<T> observer, @Nullable LifecycleOwner owner,
+      boolean sticky, @NonNull EventMetrics metrics) {
+    ObserverNode<T> node = null;
+    synchronized (POOL_LOCK) {
+      if (sPool != null) {
+        // noinspection unchecked
+        node = (ObserverNode<T>) sPool;
+        sPool = node.mNextPooled;
+        node.mNextPooled = null;
+        sPoolSize--;
+      }
+    }
+    if (node == null) {
+      node = new ObserverNode<>();
+    }
+    node.mObserver = observer;
+    node.mOwner = owner;
+    node.mSticky = sticky;
+    node.mMetrics = metrics;
+    return node;
+  }
+
+  /**
+   * 调用后不能再使用该节点，调用方需要保证没有其他地方（Lifecycle、待处理的 Message）还持有它
+   */
+  void recycle() {
+    mObserver = null;
+    mOwner = null;
+    mMetrics = null;
+    mSticky = false;
+    mLiveData = null;
+    mAttached = false;
+    mActive = false;
+    mLastVersion = LiveEventData.START_VERSION;
+    mPreventNextEvent = false;
+    mPrev = null;
+    mNext = null;
+    mNextPending = null;
+    synchronized (POOL_LOCK) {
+      if (sPoolSize < MAX_POOL_SIZE) {
+        mNextPooled = sPool;
+        sPool = this;
+        sPoolSize++;
+      }
+    }
+  }
+
+  void onChanged(T value) {
+    if (mPreventNextEvent) {
+      mPreventNextEvent = false;
+      return;
+    }
+    mMetrics.onDelivery();
+    mObserver.onChanged(value);
+  }
+
+  @Override
+  public void onStateChanged(LifecycleOwner source, Lifecycle.Event event) {
+    LiveEventData<T> liveData = mLiveData;
+    if (liveData != null) {
+      liveData.onStateChanged(this);
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package com.hhh.liveeventbus;
+
+import java.io.IOException;
+
+import android.os.Handler;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 最新的值会写入 {@link StickyJournal}，进程重启后第一次访问该 key 时恢复，粘性 Observer 可以收到恢复的值
+ */
+class PersistentLiveEvent<T> extends LiveEvent<T> {
+
+  private static final String TAG = "LiveEventBus";
+
+  @NonNull
+  private final StickyJournal mJournal;
+  @NonNull
+  private final Serializer<T> mSerializer;
+
+  private PersistentLiveEvent(@NonNull String key, @NonNull Dispatcher dispatcher,
+      @NonNull EventMetrics metrics, @NonNull LiveEventData<T> liveData,
+      @NonNull StickyJournal journal, @NonNull Serializer<T> serializer) {
+    super(key, dispatcher, metrics, liveData);
+    mJournal = journal;
+    mSerializer = serializer;
+  }
+
+  @NonNull
+  static <T> PersistentLiveEvent<T> restore(@NonNull String key, @NonNull Dispatcher dispatcher,
+      @NonNull EventMetrics metrics, @NonNull StickyJournal journal,
+      @NonNull Serializer<T> serializer) {
+    Handler handler = dispatcher.handlerFor(key);
+    LiveEventData<T> liveData;
+    if (journal.contains(key)) {
+      liveData = restoreValue(key, handler, journal, serializer);
+    } else {
+      liveData = new LiveEventData<>(handler);
+    }
+    return new PersistentLiveEvent<>(key, dispatcher, metrics, liveData, journal, serializer);
+  }
+
+  @NonNull
+  private static <T> LiveEventData<T> restoreValue(@NonNull String key, @NonNull Handler handler,
+      @NonNull StickyJournal journal, @NonNull Serializer<T> serializer) {
+    byte[] bytes = journal.read(key);
+    if (bytes == null) {
+      return new LiveEventData<>(handler, null);
+    }
+    try {
+      return new LiveEventData<>(handler, serializer.deserialize(bytes));
+    } catch (RuntimeException e) {
+      // 旧版本或损坏的记录不应该影响启动，当作没有持久化的值
+      Log.e(TAG, "failed to restore sticky event " + key, e);
+      return new LiveEventData<>(handler);
+    }
+  }
+
+  // 在分发线程上写入，与分发的顺序一致
+  @Override
+  void onValueSet(T value) {
+    try {
+      mJournal.append(getKey(), value == null ? null : mSerializer.serialize(value));
+    } catch (IOException e) {
+      // 持久化失败不影响消息的分发
+      Log.e(TAG, "failed to persist sticky event " + getKey(), e);
+    }
+  }
+}
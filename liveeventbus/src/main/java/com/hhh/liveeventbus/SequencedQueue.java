@@ -0,0 +1,120 @@
+package com.hhh.liveeventbus;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 有序投递队列：在调用处用无锁计数器为每条消息分配序号，在分发线程上严格按序号先进先出地投递
+ *
+ * 分配序号与入队之间可能被其他生产者抢先，所以分发时先把消息放入按序号排序的缓冲区，
+ * 只有序号连续的消息才会投递，缺失的序号入队时会再次触发分发，消息不会丢失、重排或被覆盖
+ *
+ * 屏障和消息共用序号，投递到屏障时暂停，之后的消息等到 {@link #resume()} 再投递
+ */
+final class SequencedQueue<T> {
+
+  interface Sink<T> {
+    void deliver(T value);
+  }
+
+  interface Barrier {
+    /**
+     * 之前的消息都已投递时在分发线程回调，此时队列已暂停
+     */
+    void onReached();
+  }
+
+  private final AtomicLong mNextSequence = new AtomicLong();
+  private final ConcurrentLinkedQueue<Entry<T>> mQueue = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+  @NonNull
+  private final Executor mExecutor;
+  @NonNull
+  private final Sink<T> mSink;
+  private final Runnable mDrainRunnable = this::drain;
+  // 以下字段只在分发线程上访问
+  private final PriorityQueue<Entry<T>> mReorderBuffer = new PriorityQueue<>();
+  private long mExpectedSequence;
+  private boolean mPaused;
+
+  /**
+   * @param executor 在分发线程上执行任务
+   * @param sink 在分发线程上按序接收消息
+   */
+  SequencedQueue(@NonNull Executor executor, @NonNull Sink<T> sink) {
+    mExecutor = executor;
+    mSink = sink;
+  }
+
+  /**
+   * 支持任意线程调用
+   */
+  void offer(T value) {
+    enqueue(new Entry<>(mNextSequence.getAndIncrement(), value, null));
+  }
+
+  /**
+   * 支持任意线程调用
+   */
+  void offerBarrier(@NonNull Barrier barrier) {
+    enqueue(new Entry<>(mNextSequence.getAndIncrement(), null, barrier));
+  }
+
+  /**
+   * 在分发线程调用，继续投递屏障之后的消息
+   */
+  void resume() {
+    mPaused = false;
+    drain();
+  }
+
+  private void enqueue(@NonNull Entry<T> entry) {
+    mQueue.offer(entry);
+    if (mDrainScheduled.compareAndSet(false, true)) {
+      mExecutor.execute(mDrainRunnable);
+    }
+  }
+
+  private void drain() {
+    // 先清除标记再取消息，之后入队的消息一定会再次触发分发
+    mDrainScheduled.set(false);
+    Entry<T> entry;
+    while ((entry = mQueue.poll()) != null) {
+      mReorderBuffer.add(entry);
+    }
+    while (!mPaused && !mReorderBuffer.isEmpty()
+        && mReorderBuffer.peek().mSequence == mExpectedSequence) {
+      mExpectedSequence++;
+      entry = mReorderBuffer.poll();
+      if (entry.mBarrier != null) {
+        // 先暂停再回调，回调中可能直接 resume
+        mPaused = true;
+        entry.mBarrier.onReached();
+      } else {
+        mSink.deliver(entry.mValue);
+      }
+    }
+  }
+
+  private static final class Entry<T> implements Comparable<Entry<T>> {
+    final long mSequence;
+    final T mValue;
+    final Barrier mBarrier;
+
+    Entry(long sequence, T value, Barrier barrier) {
+      mSequence = sequence;
+      mValue = value;
+      mBarrier = barrier;
+    }
+
+    @Override
+    public int compareTo(@NonNull Entry<T> other) {
+      return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package com.hhh.liveeventbus;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 持久化粘性消息时使用的序列化器，由使用方根据消息类型提供
+ */
+public interface Serializer<T> {
+
+  @NonNull
+  byte[] serialize(@NonNull T value);
+
+  @NonNull
+  T deserialize(@NonNull byte[] bytes);
+}
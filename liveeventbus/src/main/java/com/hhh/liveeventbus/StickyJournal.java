@@ -0,0 +1,237 @@
+package com.hhh.liveeventbus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * 持久化粘性消息的日志文件，通过内存映射只追加写入，同一个 key 只有最后一条记录有效
+ *
+ * 文件格式：header = magic(int) + end(int)，之后是连续的记录
+ * record = keyLength(int) + key(UTF-8) + valueLength(int，-1 表示 null) + value
+ *
+ * 先写记录再更新 header 中的 end，进程在写入中途被杀时，未完成的记录会被忽略。
+ * 索引在第一次访问时才扫描建立，且只解析 key，value 在对应 key 被访问时才读取。
+ * 无效数据的体积超过有效数据、且文件需要扩容时，会先做一次压缩。
+ *
+ * 只支持单进程访问
+ */
+final class StickyJournal {
+
+  private static final int MAGIC = 0x4C454A31;
+  private static final int HEADER_SIZE = 8;
+  private static final int END_OFFSET = 4;
+  private static final int INITIAL_SIZE = 16 * 1024;
+  private static final int NULL_LENGTH = -1;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  @NonNull
+  private final File mFile;
+  private final Map<String, Record> mIndex = new HashMap<>();
+  private RandomAccessFile mRandomAccessFile;
+  private MappedByteBuffer mBuffer;
+  private int mEnd;
+  private int mLiveBytes;
+  private boolean mIndexed;
+
+  private StickyJournal(@NonNull File file) {
+    mFile = file;
+  }
+
+  @NonNull
+  static StickyJournal open(@NonNull File file) throws IOException {
+    StickyJournal journal = new StickyJournal(file);
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    journal.map(randomAccessFile,
+        Math.max(INITIAL_SIZE, (int) Math.min(Integer.MAX_VALUE, randomAccessFile.length())));
+    if (journal.mBuffer.getInt(0) != MAGIC) {
+      journal.mBuffer.putInt(0, MAGIC);
+      journal.setEnd(HEADER_SIZE);
+    } else {
+      int end = journal.mBuffer.getInt(END_OFFSET);
+      journal.mEnd = end < HEADER_SIZE || end > journal.mBuffer.capacity() ? HEADER_SIZE : end;
+    }
+    return journal;
+  }
+
+  /**
+   * @return 该 key 是否有持久化的记录，记录的值可以是 null
+   */
+  synchronized boolean contains(@NonNull String key) {
+    ensureIndexed();
+    return mIndex.containsKey(key);
+  }
+
+  /**
+   * @return 该 key 最后一次写入的值，没有记录或者写入的是 null 时返回 null
+   */
+  @Nullable
+  synchronized byte[] read(@NonNull String key) {
+    ensureIndexed();
+    Record record = mIndex.get(key);
+    if (record == null || record.mValueLength == NULL_LENGTH) {
+      return null;
+    }
+    byte[] value = new byte[record.mValueLength];
+    readBytes(record.mValueOffset, value);
+    return value;
+  }
+
+  synchronized void append(@NonNull String key, @Nullable byte[] value) throws IOException {
+    ensureIndexed();
+    byte[] keyBytes = key.getBytes(UTF_8);
+    int valueLength = value == null ? NULL_LENGTH : value.length;
+    int length = 4 + keyBytes.length + 4 + Math.max(valueLength, 0);
+    if (mEnd + length > mBuffer.capacity()) {
+      if (mEnd - HEADER_SIZE - mLiveBytes >= mLiveBytes) {
+        compact(length);
+      } else {
+        map(mRandomAccessFile, capacityFor(mEnd + length));
+      }
+    }
+    int offset = mEnd;
+    mBuffer.putInt(offset, keyBytes.length);
+    writeBytes(offset + 4, keyBytes);
+    mBuffer.putInt(offset + 4 + keyBytes.length, valueLength);
+    if (value != null) {
+      writeBytes(offset + 4 + keyBytes.length + 4, value);
+    }
+    setEnd(offset + length);
+    index(key, new Record(offset, length, offset + 4 + keyBytes.length + 4, valueLength));
+  }
+
+  private void ensureIndexed() {
+    if (mIndexed) {
+      return;
+    }
+    mIndexed = true;
+    int offset = HEADER_SIZE;
+    while (offset + 4 <= mEnd) {
+      int keyLength = mBuffer.getInt(offset);
+      if (keyLength < 0 || offset + 4 + keyLength + 4 > mEnd) {
+        break;
+      }
+      int valueLength = mBuffer.getInt(offset + 4 + keyLength);
+      int length = 4 + keyLength + 4 + Math.max(valueLength, 0);
+      if (valueLength < NULL_LENGTH || offset + length > mEnd) {
+        break;
+      }
+      byte[] keyBytes = new byte[keyLength];
+      readBytes(offset + 4, keyBytes);
+      index(new String(keyBytes, UTF_8),
+          new Record(offset, length, offset + 4 + keyLength + 4, valueLength));
+      offset += length;
+    }
+    // 丢弃尾部不完整的记录
+    setEnd(offset);
+  }
+
+  private void index(@NonNull String key, @NonNull Record record) {
+    Record previous = mIndex.put(key, record);
+    if (previous != null) {
+      mLiveBytes -= previous.mLength;
+    }
+    mLiveBytes += record.mLength;
+  }
+
+  /**
+   * 只保留每个 key 的最后一条记录，写入新文件后替换旧文件
+   *
+   * 替换成功之前不修改任何状态，失败时旧的映射和索引仍然可用。
+   * 和普通的追加一样不调用 force，进程被杀时数据仍在系统的页缓存中，避免在 post 的调用链上做 fsync
+   */
+  private void compact(int reserve) throws IOException {
+    File compactFile = new File(mFile.getPath() + ".compact");
+    RandomAccessFile compactRandomAccessFile = new RandomAccessFile(compactFile, "rw");
+    Record[] records = mIndex.values().toArray(new Record[0]);
+    int[] offsets = new int[records.length];
+    MappedByteBuffer compactBuffer;
+    int offset = HEADER_SIZE;
+    try {
+      compactRandomAccessFile.setLength(0);
+      compactBuffer = compactRandomAccessFile.getChannel()
+          .map(FileChannel.MapMode.READ_WRITE, 0, capacityFor(HEADER_SIZE + mLiveBytes + reserve));
+      byte[] bytes = new byte[0];
+      for (int i = 0; i < records.length; i++) {
+        Record record = records[i];
+        if (bytes.length < record.mLength) {
+          bytes = new byte[record.mLength];
+        }
+        mBuffer.position(record.mOffset);
+        mBuffer.get(bytes, 0, record.mLength);
+        compactBuffer.position(offset);
+        compactBuffer.put(bytes, 0, record.mLength);
+        offsets[i] = offset;
+        offset += record.mLength;
+      }
+      compactBuffer.putInt(0, MAGIC);
+      compactBuffer.putInt(END_OFFSET, offset);
+      if (!compactFile.renameTo(mFile)) {
+        throw new IOException("failed to replace " + mFile + " with compacted journal");
+      }
+    } catch (IOException e) {
+      compactRandomAccessFile.close();
+      compactFile.delete();
+      throw e;
+    }
+    mRandomAccessFile.close();
+    for (int i = 0; i < records.length; i++) {
+      int delta = offsets[i] - records[i].mOffset;
+      records[i].mOffset += delta;
+      records[i].mValueOffset += delta;
+    }
+    mRandomAccessFile = compactRandomAccessFile;
+    mBuffer = compactBuffer;
+    mEnd = offset;
+  }
+
+  private void map(@NonNull RandomAccessFile randomAccessFile, int size) throws IOException {
+    mRandomAccessFile = randomAccessFile;
+    mBuffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+  }
+
+  private void setEnd(int end) {
+    mEnd = end;
+    mBuffer.putInt(END_OFFSET, end);
+  }
+
+  private void readBytes(int offset, @NonNull byte[] dst) {
+    mBuffer.position(offset);
+    mBuffer.get(dst);
+  }
+
+  private void writeBytes(int offset, @NonNull byte[] src) {
+    mBuffer.position(offset);
+    mBuffer.put(src);
+  }
+
+  private static int capacityFor(int size) {
+    int capacity = INITIAL_SIZE;
+    while (capacity < size) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  private static final class Record {
+    int mOffset;
+    final int mLength;
+    int mValueOffset;
+    final int mValueLength;
+
+    Record(int offset, int length, int valueOffset, int valueLength) {
+      mOffset = offset;
+      mLength = length;
+      mValueOffset = valueOffset;
+      mValueLength = valueLength;
+    }
+  }
+}
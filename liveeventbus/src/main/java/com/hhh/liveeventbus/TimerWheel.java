@@ -0,0 +1,172 @@
+package com.hhh.liveeventbus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 哈希时间轮，一个分发线程上所有的延迟消息共用一个 tick Message，而不是每个延迟消息一个 Message
+ *
+ * 时间轮有 WHEEL_SIZE 个槽，每 TICK_MS 前进一格，到期时间按 tick 向上取整，所以精度为 TICK_MS。
+ * 时间轮不会每格都唤醒 Looper，只在最近的到期时间 tick 一次，空闲时不占用 Looper
+ */
+final class TimerWheel {
+
+  private static final long TICK_MS = 10L;
+  private static final int WHEEL_SIZE = 512;
+  private static final int MASK = WHEEL_SIZE - 1;
+
+  @NonNull
+  private final Handler mHandler;
+  private final Timeout[] mHeads = new Timeout[WHEEL_SIZE];
+  private final Timeout[] mTails = new Timeout[WHEEL_SIZE];
+  // 只在分发线程上使用，避免每次 tick 都分配
+  private final List<Timeout> mExpired = new ArrayList<>();
+  private final Runnable mTickRunnable = this::onTick;
+
+  private long mStartTime;
+  // 已经处理过的最后一个 tick
+  private long mTick;
+  private int mPendingCount;
+  private boolean mTicking;
+  // mTicking 为 true 时，已经 post 的 tick Message 对应的 tick
+  private long mScheduledTick;
+
+  TimerWheel(@NonNull Handler handler) {
+    mHandler = handler;
+  }
+
+  /**
+   * 在 delay 毫秒后于分发线程执行 task，支持任意线程调用
+   */
+  @NonNull
+  Cancellable schedule(@NonNull Runnable task, long delay) {
+    synchronized (this) {
+      long now = SystemClock.uptimeMillis();
+      if (!mTicking) {
+        mStartTime = now;
+        mTick = 0;
+      }
+      long deadline = (now + Math.max(delay, 0L) - mStartTime + TICK_MS - 1) / TICK_MS;
+      Timeout timeout = new Timeout(task, Math.max(deadline, mTick + 1));
+      add(timeout);
+      if (!mTicking) {
+        mTicking = true;
+        scheduleTick(timeout.mDeadline);
+      } else if (timeout.mDeadline < mScheduledTick) {
+        // 比已经 post 的 tick 更早到期，提前 tick
+        mHandler.removeCallbacks(mTickRunnable);
+        scheduleTick(timeout.mDeadline);
+      }
+      return timeout;
+    }
+  }
+
+  private void onTick() {
+    synchronized (this) {
+      long tick = (SystemClock.uptimeMillis() - mStartTime) / TICK_MS;
+      // Looper 被长时间阻塞时，跨过的 tick 超过一圈，遍历一圈即可覆盖所有槽
+      long steps = Math.min(tick - mTick, WHEEL_SIZE);
+      for (long i = 1; i <= steps; i++) {
+        int bucket = (int) ((mTick + i) & MASK);
+        Timeout timeout = mHeads[bucket];
+        while (timeout != null) {
+          Timeout next = timeout.mNext;
+          if (timeout.mDeadline <= tick) {
+            remove(timeout);
+            mExpired.add(timeout);
+          }
+          timeout = next;
+        }
+      }
+      mTick = Math.max(mTick, tick);
+      if (mPendingCount > 0) {
+        scheduleTick(Math.max(nextDeadline(), mTick + 1));
+      } else {
+        mTicking = false;
+      }
+    }
+    for (int i = 0; i < mExpired.size(); i++) {
+      mExpired.get(i).mTask.run();
+    }
+    mExpired.clear();
+  }
+
+  private void scheduleTick(long tick) {
+    mScheduledTick = tick;
+    mHandler.postAtTime(mTickRunnable, mStartTime + tick * TICK_MS);
+  }
+
+  /**
+   * 所有待执行任务中最早的到期 tick，只在 tick 时遍历一次，跳过空槽
+   */
+  private long nextDeadline() {
+    long deadline = Long.MAX_VALUE;
+    for (Timeout head : mHeads) {
+      for (Timeout timeout = head; timeout != null; timeout = timeout.mNext) {
+        deadline = Math.min(deadline, timeout.mDeadline);
+      }
+    }
+    return deadline;
+  }
+
+  private void add(@NonNull Timeout timeout) {
+    int bucket = (int) (timeout.mDeadline & MASK);
+    timeout.mPrev = mTails[bucket];
+    if (mTails[bucket] == null) {
+      mHeads[bucket] = timeout;
+    } else {
+      mTails[bucket].mNext = timeout;
+    }
+    mTails[bucket] = timeout;
+    timeout.mScheduled = true;
+    mPendingCount++;
+  }
+
+  private void remove(@NonNull Timeout timeout) {
+    int bucket = (int) (timeout.mDeadline & MASK);
+    if (timeout.mPrev == null) {
+      mHeads[bucket] = timeout.mNext;
+    } else {
+      timeout.mPrev.mNext = timeout.mNext;
+    }
+    if (timeout.mNext == null) {
+      mTails[bucket] = timeout.mPrev;
+    } else {
+      timeout.mNext.mPrev = timeout.mPrev;
+    }
+    timeout.mPrev = null;
+    timeout.mNext = null;
+    timeout.mScheduled = false;
+    mPendingCount--;
+  }
+
+  private final class Timeout implements Cancellable {
+    @NonNull
+    final Runnable mTask;
+    final long mDeadline;
+    Timeout mPrev;
+    Timeout mNext;
+    boolean mScheduled;
+
+    Timeout(@NonNull Runnable task, long deadline) {
+      mTask = task;
+      mDeadline = deadline;
+    }
+
+    @Override
+    public boolean cancel() {
+      synchronized (TimerWheel.this) {
+        if (!mScheduled) {
+          return false;
+        }
+        remove(this);
+        return true;
+      }
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package com.hhh.liveeventbus;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.Observer;
+
+/**
+ * 弱引用持有真正的 Observer，以自身作为 key 注册到 LiveEventData，
+ * 被回收后会进入 ReferenceQueue，由 LiveEvent 在分发时清理
+ */
+class WeakObserver<T> extends WeakReference<Observer<T>> implements Observer<T> {
+
+  WeakObserver(@NonNull Observer<T> observer, @NonNull ReferenceQueue<Observer<T>> queue) {
+    super(observer, queue);
+  }
+
+  @Override
+  public void onChanged(@Nullable T t) {
+    Observer<T> observer = get();
+    if (observer != null) {
+      observer.onChanged(t);
+    }
+  }
+}
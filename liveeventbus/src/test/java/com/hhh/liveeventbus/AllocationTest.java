@@ -0,0 +1,73 @@
+package com.hhh.liveeventbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import androidx.lifecycle.Observer;
+
+/**
+ * 稳定状态下在分发线程上订阅、发送、反订阅不分配内存
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class AllocationTest {
+
+  private static final int WARM_UP_CYCLES = 20000;
+  private static final int CYCLES = 10000;
+
+  @Test
+  public void subscribePostUnsubscribeCycleDoesNotAllocate() {
+    com.sun.management.ThreadMXBean threadMXBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+    threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+    Observable<Object> observable = new LiveEventBus().with("allocation", Object.class);
+    Object event = new Object();
+    CountingObserver observer = new CountingObserver();
+    observable.post(event);
+    runCycles(observable, observer, event, WARM_UP_CYCLES);
+
+    long threadId = Thread.currentThread().getId();
+    long before = threadMXBean.getThreadAllocatedBytes(threadId);
+    runCycles(observable, observer, event, CYCLES);
+    long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+
+    // 每个周期：粘性注册收到一次，post 收到一次，非粘性注册只收到 post
+    assertEquals(3L * (WARM_UP_CYCLES + CYCLES), observer.mCount);
+    // 任何一处按周期分配都会超过每周期 1 字节
+    assertTrue("allocated " + allocated + " bytes in " + CYCLES + " cycles", allocated < CYCLES);
+  }
+
+  private static void runCycles(Observable<Object> observable, Observer<Object> observer,
+      Object event, int cycles) {
+    Observer<Object> other = value -> {};
+    for (int i = 0; i < cycles; i++) {
+      observable.observeStickyForever(observer);
+      observable.observeForever(other);
+      observable.post(event);
+      observable.removeObserver(observer);
+      observable.removeObserver(other);
+      observable.observeForever(observer);
+      observable.post(event);
+      observable.removeObserver(observer);
+    }
+  }
+
+  private static final class CountingObserver implements Observer<Object> {
+    long mCount;
+
+    @Override
+    public void onChanged(Object value) {
+      mCount++;
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package com.hhh.liveeventbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+/**
+ * 推进主线程的时钟，验证 postDelay 的取消以及 debounce、throttle 发送的值和时机
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class DelayedPostTest {
+
+  private static final long WINDOW_MS = 100L;
+
+  private Observable<String> mObservable;
+  private List<String> mDelivered;
+
+  @Before
+  public void setUp() {
+    mObservable = new LiveEventBus().with("delayed", String.class);
+    mDelivered = new ArrayList<>();
+    mObservable.observeForever(mDelivered::add);
+  }
+
+  @Test
+  public void cancelledDelayIsNeverDelivered() {
+    Cancellable cancellable = mObservable.postDelay("a", WINDOW_MS);
+    mObservable.postDelay("b", WINDOW_MS);
+
+    assertTrue(cancellable.cancel());
+    ShadowLooper.idleMainLooper(1, TimeUnit.SECONDS);
+
+    assertEquals("[b]", mDelivered.toString());
+  }
+
+  @Test
+  public void newerDebounceReplacesPendingValue() {
+    mObservable.debounce("a", WINDOW_MS);
+    ShadowLooper.idleMainLooper(WINDOW_MS / 2, TimeUnit.MILLISECONDS);
+    mObservable.debounce("b", WINDOW_MS);
+
+    // a 原本到期的时间已经过了
+    ShadowLooper.idleMainLooper(WINDOW_MS / 2 + 10, TimeUnit.MILLISECONDS);
+    assertEquals("[]", mDelivered.toString());
+
+    ShadowLooper.idleMainLooper(WINDOW_MS, TimeUnit.MILLISECONDS);
+    assertEquals("[b]", mDelivered.toString());
+    ShadowLooper.idleMainLooper(1, TimeUnit.SECONDS);
+    assertEquals("[b]", mDelivered.toString());
+  }
+
+  @Test
+  public void throttleSendsFirstAtOnceAndLatestAtWindowEnd() {
+    mObservable.throttle("a", WINDOW_MS);
+    assertEquals("[a]", mDelivered.toString());
+
+    mObservable.throttle("b", WINDOW_MS);
+    mObservable.throttle("c", WINDOW_MS);
+    assertEquals("[a]", mDelivered.toString());
+
+    ShadowLooper.idleMainLooper(WINDOW_MS, TimeUnit.MILLISECONDS);
+    assertEquals("[a, c]", mDelivered.toString());
+
+    // c 开启了新的窗口，窗口内没有新消息，结束后下一个值立即发送
+    ShadowLooper.idleMainLooper(WINDOW_MS, TimeUnit.MILLISECONDS);
+    assertEquals("[a, c]", mDelivered.toString());
+    mObservable.throttle("d", WINDOW_MS);
+    assertEquals("[a, c, d]", mDelivered.toString());
+  }
+}
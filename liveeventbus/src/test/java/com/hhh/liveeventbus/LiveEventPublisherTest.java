@@ -0,0 +1,173 @@
+package com.hhh.liveeventbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+/**
+ * 验证 Publisher 的需求量、缓冲区溢出策略以及取消后不会遗留注册
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class LiveEventPublisherTest {
+
+  private static final int BUFFER_SIZE = 2;
+
+  private LiveEvent<String> mLiveEvent;
+
+  @Before
+  public void setUp() {
+    mLiveEvent = (LiveEvent<String>) new LiveEventBus().with("publisher", String.class);
+  }
+
+  @Test
+  public void deliversNothingBeforeRequestThenExactlyRequested() {
+    RecordingSubscriber subscriber = new RecordingSubscriber(0);
+    LiveEventPublisher.from(mLiveEvent).subscribe(subscriber);
+
+    post(5);
+    assertEquals("[]", subscriber.mSignals.toString());
+
+    subscriber.mSubscription.request(3);
+    assertEquals("[v0, v1, v2]", subscriber.mSignals.toString());
+    post(1);
+    assertEquals("[v0, v1, v2]", subscriber.mSignals.toString());
+  }
+
+  @Test
+  public void errorStrategySignalsOnErrorOnceOnOverflow() {
+    RecordingSubscriber subscriber = new RecordingSubscriber(0);
+    LiveEventPublisher.from(mLiveEvent, BUFFER_SIZE, LiveEventPublisher.BackpressureStrategy.ERROR)
+        .subscribe(subscriber);
+
+    post(BUFFER_SIZE + 1);
+    assertEquals("[error IllegalStateException]", subscriber.mSignals.toString());
+
+    post(3);
+    subscriber.mSubscription.request(10);
+    assertEquals("[error IllegalStateException]", subscriber.mSignals.toString());
+    assertFalse(mLiveEvent.hasObservers());
+  }
+
+  @Test
+  public void dropOldestKeepsNewestValues() {
+    RecordingSubscriber subscriber = new RecordingSubscriber(0);
+    LiveEventPublisher.from(mLiveEvent, BUFFER_SIZE,
+        LiveEventPublisher.BackpressureStrategy.DROP_OLDEST).subscribe(subscriber);
+
+    post(5);
+    subscriber.mSubscription.request(10);
+
+    assertEquals("[v3, v4]", subscriber.mSignals.toString());
+  }
+
+  @Test
+  public void latestKeepsOnlyLastValue() {
+    RecordingSubscriber subscriber = new RecordingSubscriber(0);
+    LiveEventPublisher.from(mLiveEvent, BUFFER_SIZE, LiveEventPublisher.BackpressureStrategy.LATEST)
+        .subscribe(subscriber);
+
+    post(5);
+    subscriber.mSubscription.request(10);
+
+    assertEquals("[v4]", subscriber.mSignals.toString());
+  }
+
+  @Test
+  public void nonPositiveRequestSignalsIllegalArgument() {
+    RecordingSubscriber subscriber = new RecordingSubscriber(0);
+    LiveEventPublisher.from(mLiveEvent).subscribe(subscriber);
+
+    subscriber.mSubscription.request(0);
+    post(1);
+
+    assertEquals("[error IllegalArgumentException]", subscriber.mSignals.toString());
+  }
+
+  @Test
+  public void cancelInOnSubscribeOnBackgroundThreadLeavesNoObserver() throws Exception {
+    Publisher<String> publisher = LiveEventPublisher.from(mLiveEvent);
+    subscribeOnBackgroundThread(publisher, new RecordingSubscriber(0) {
+      @Override
+      public void onSubscribe(Subscription subscription) {
+        subscription.cancel();
+      }
+    });
+
+    ShadowLooper.idleMainLooper();
+    assertFalse(mLiveEvent.hasObservers());
+  }
+
+  @Test
+  public void cancelBeforeQueuedRegistrationLeavesNoObserver() throws Exception {
+    RecordingSubscriber subscriber = new RecordingSubscriber(1);
+    subscribeOnBackgroundThread(LiveEventPublisher.from(mLiveEvent), subscriber);
+
+    // 注册还在主线程的队列中，在主线程上取消
+    subscriber.mSubscription.cancel();
+    ShadowLooper.idleMainLooper();
+
+    assertFalse(mLiveEvent.hasObservers());
+    post(1);
+    assertTrue(subscriber.mSignals.isEmpty());
+  }
+
+  private void post(int count) {
+    for (int i = 0; i < count; i++) {
+      mLiveEvent.post("v" + i);
+    }
+  }
+
+  private static void subscribeOnBackgroundThread(Publisher<String> publisher,
+      Subscriber<String> subscriber) throws InterruptedException {
+    Thread thread = new Thread(() -> publisher.subscribe(subscriber));
+    thread.start();
+    thread.join();
+  }
+
+  private static class RecordingSubscriber implements Subscriber<String> {
+    private final long mInitialRequest;
+    final List<String> mSignals = new ArrayList<>();
+    Subscription mSubscription;
+
+    RecordingSubscriber(long initialRequest) {
+      mInitialRequest = initialRequest;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      mSubscription = subscription;
+      if (mInitialRequest > 0) {
+        subscription.request(mInitialRequest);
+      }
+    }
+
+    @Override
+    public void onNext(String value) {
+      mSignals.add(value);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      mSignals.add("error " + error.getClass().getSimpleName());
+    }
+
+    @Override
+    public void onComplete() {
+      mSignals.add("complete");
+    }
+  }
+}
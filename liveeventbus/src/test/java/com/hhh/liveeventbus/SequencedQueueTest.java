@@ -0,0 +1,154 @@
+package com.hhh.liveeventbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * 多生产者竞争下验证有序投递不丢消息、不重排
+ */
+public class SequencedQueueTest {
+
+  private static final int PRODUCERS = 8;
+  private static final int EVENTS_PER_PRODUCER = 20000;
+
+  @Test
+  public void deliversEveryEventInOrderUnderContention() throws Exception {
+    ExecutorService dispatchThread = Executors.newSingleThreadExecutor();
+    List<Long> delivered = new ArrayList<>();
+    CountDownLatch done = new CountDownLatch(PRODUCERS * EVENTS_PER_PRODUCER);
+    SequencedQueue<Long> queue = new SequencedQueue<>(dispatchThread, value -> {
+      delivered.add(value);
+      done.countDown();
+    });
+
+    runProducers(queue);
+
+    assertTrue("events lost", done.await(30, TimeUnit.SECONDS));
+    dispatchThread.shutdown();
+    assertTrue(dispatchThread.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(PRODUCERS * EVENTS_PER_PRODUCER, delivered.size());
+    assertProducerOrder(delivered);
+  }
+
+  @Test
+  public void deliversInSequenceOrderWhenDrainsRunLate() throws Exception {
+    // 分发任务先攒起来，在生产者还在竞争时随机执行，模拟被阻塞的 Looper
+    List<Runnable> pendingDrains = Collections.synchronizedList(new ArrayList<>());
+    List<Long> delivered = new ArrayList<>();
+    SequencedQueue<Long> queue = new SequencedQueue<>(pendingDrains::add, delivered::add);
+    Random random = new Random(42);
+
+    Thread producers = new Thread(() -> {
+      try {
+        runProducers(queue);
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+    });
+    producers.start();
+    while (producers.isAlive() || !pendingDrains.isEmpty()) {
+      if (!pendingDrains.isEmpty() && random.nextInt(4) == 0) {
+        pendingDrains.remove(0).run();
+      }
+    }
+
+    assertEquals(PRODUCERS * EVENTS_PER_PRODUCER, delivered.size());
+    assertProducerOrder(delivered);
+  }
+
+  @Test
+  public void reentrantOfferIsDeliveredAfterCurrentEvent() {
+    // 两个消息都入队之后才手动执行分发任务，重入的 offer 一定排在 b 之后
+    List<Runnable> pendingDrains = new ArrayList<>();
+    List<String> delivered = new ArrayList<>();
+    List<SequencedQueue<String>> holder = new ArrayList<>();
+    holder.add(new SequencedQueue<>(pendingDrains::add, value -> {
+      delivered.add(value);
+      if ("a".equals(value)) {
+        holder.get(0).offer("c");
+      }
+    }));
+
+    holder.get(0).offer("a");
+    holder.get(0).offer("b");
+    while (!pendingDrains.isEmpty()) {
+      pendingDrains.remove(0).run();
+    }
+
+    assertEquals("[a, b, c]", delivered.toString());
+  }
+
+  @Test
+  public void barrierHoldsLaterEventsUntilResumed() {
+    // 直接在当前线程执行分发任务
+    List<String> delivered = new ArrayList<>();
+    SequencedQueue<String> queue = new SequencedQueue<>(Runnable::run, delivered::add);
+    List<Runnable> pendingResumes = new ArrayList<>();
+
+    queue.offer("a");
+    queue.offerBarrier(() -> {
+      delivered.add("barrier");
+      pendingResumes.add(queue::resume);
+    });
+    queue.offer("b");
+    assertEquals("[a, barrier]", delivered.toString());
+
+    pendingResumes.get(0).run();
+    queue.offer("c");
+    assertEquals("[a, barrier, b, c]", delivered.toString());
+  }
+
+  /**
+   * 每个生产者发送 producer * EVENTS_PER_PRODUCER + index
+   */
+  private static void runProducers(SequencedQueue<Long> queue) throws InterruptedException {
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int producer = 0; producer < PRODUCERS; producer++) {
+      long base = (long) producer * EVENTS_PER_PRODUCER;
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 0; i < EVENTS_PER_PRODUCER; i++) {
+          queue.offer(base + i);
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  /**
+   * 序号在调用处分配，同一个生产者发送的消息必须按发送顺序、无重复地收到
+   */
+  private static void assertProducerOrder(List<Long> delivered) {
+    long[] next = new long[PRODUCERS];
+    for (long value : delivered) {
+      int producer = (int) (value / EVENTS_PER_PRODUCER);
+      assertEquals("producer " + producer + " reordered", next[producer],
+          value % EVENTS_PER_PRODUCER);
+      next[producer]++;
+    }
+    for (int producer = 0; producer < PRODUCERS; producer++) {
+      assertEquals(EVENTS_PER_PRODUCER, next[producer]);
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package com.hhh.liveeventbus;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * 验证日志文件格式在重新打开、尾部记录不完整、压缩之后仍然能读回每个 key 最后写入的值
+ */
+public class StickyJournalTest {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  // 与 StickyJournal 的 header 布局一致：magic(int) + end(int)
+  private static final int END_OFFSET = 4;
+  private static final int HEADER_SIZE = 8;
+  // 与 StickyJournal 新建文件的映射大小一致
+  private static final int INITIAL_SIZE = 16 * 1024;
+
+  @Rule
+  public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void reopenedJournalReadsLastValueOfEachKey() throws IOException {
+    File file = mTemporaryFolder.newFile();
+    StickyJournal journal = StickyJournal.open(file);
+    journal.append("first", bytes("a"));
+    journal.append("second", bytes("b"));
+    journal.append("first", bytes("c"));
+
+    StickyJournal reopened = StickyJournal.open(file);
+    assertArrayEquals(bytes("c"), reopened.read("first"));
+    assertArrayEquals(bytes("b"), reopened.read("second"));
+    assertFalse(reopened.contains("missing"));
+    assertNull(reopened.read("missing"));
+  }
+
+  @Test
+  public void nullValueIsRecordedAndDistinctFromMissingKey() throws IOException {
+    File file = mTemporaryFolder.newFile();
+    StickyJournal journal = StickyJournal.open(file);
+    journal.append("key", bytes("value"));
+    journal.append("key", null);
+
+    StickyJournal reopened = StickyJournal.open(file);
+    assertTrue(reopened.contains("key"));
+    assertNull(reopened.read("key"));
+    assertFalse(reopened.contains("missing"));
+  }
+
+  @Test
+  public void tornFinalRecordIsDroppedOnReopen() throws IOException {
+    File file = mTemporaryFolder.newFile();
+    StickyJournal journal = StickyJournal.open(file);
+    journal.append("kept", bytes("a"));
+    journal.append("torn", bytes("value"));
+    // 模拟进程在写入最后一条记录的中途被杀：end 只覆盖到记录的一部分
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      randomAccessFile.seek(END_OFFSET);
+      int end = randomAccessFile.readInt();
+      randomAccessFile.seek(END_OFFSET);
+      randomAccessFile.writeInt(end - 3);
+    }
+
+    StickyJournal reopened = StickyJournal.open(file);
+    assertArrayEquals(bytes("a"), reopened.read("kept"));
+    assertFalse(reopened.contains("torn"));
+
+    // 新的记录覆盖被丢弃的尾部
+    reopened.append("next", bytes("b"));
+    StickyJournal again = StickyJournal.open(file);
+    assertArrayEquals(bytes("a"), again.read("kept"));
+    assertFalse(again.contains("torn"));
+    assertArrayEquals(bytes("b"), again.read("next"));
+  }
+
+  @Test
+  public void compactsWhileGrowing() throws IOException {
+    File file = mTemporaryFolder.newFile();
+    StickyJournal journal = StickyJournal.open(file);
+    int rounds = 200;
+    int hotKeys = 4;
+    int valueSize = 1024;
+    for (int round = 0; round < rounds; round++) {
+      for (int key = 0; key < hotKeys; key++) {
+        journal.append("hot" + key, value(round * hotKeys + key, valueSize));
+      }
+      // 同时不断增加新的 key，压缩和扩容交替发生
+      if (round % 10 == 0) {
+        journal.append("cold" + round, value(round, valueSize));
+      }
+      if (round % 50 == 0) {
+        journal.append("nullable", round % 100 == 0 ? null : bytes("set"));
+      }
+    }
+
+    assertLatestValues(journal, rounds, hotKeys, valueSize);
+    assertLatestValues(StickyJournal.open(file), rounds, hotKeys, valueSize);
+    // 写入了约 800KB，压缩后文件只保留有效数据
+    assertTrue("journal is " + file.length() + " bytes", file.length() <= 64 * 1024);
+    assertFalse(new File(file.getPath() + ".compact").exists());
+  }
+
+  @Test
+  public void failedCompactionKeepsJournalUsable() throws IOException {
+    File file = mTemporaryFolder.newFile();
+    StickyJournal journal = StickyJournal.open(file);
+    int valueSize = 1024;
+    int round = 0;
+    // 只写一个 key，直到再写一条就需要扩容，此时无效数据已经超过有效数据，会触发压缩
+    while (HEADER_SIZE + (round + 1) * recordLength("hot", valueSize) <= INITIAL_SIZE) {
+      journal.append("hot", value(round++, valueSize));
+    }
+    // 用非空目录占住原文件的路径，让替换文件失败
+    assertTrue(file.delete());
+    assertTrue(file.mkdir());
+    assertTrue(new File(file, "blocker").createNewFile());
+
+    try {
+      journal.append("hot", value(round, valueSize));
+      fail("compaction should fail");
+    } catch (IOException expected) {
+      // 替换失败
+    }
+
+    assertArrayEquals(value(round - 1, valueSize), journal.read("hot"));
+    journal.append("small", bytes("s"));
+    assertArrayEquals(bytes("s"), journal.read("small"));
+    assertArrayEquals(value(round - 1, valueSize), journal.read("hot"));
+    assertFalse(new File(file.getPath() + ".compact").exists());
+  }
+
+  private static int recordLength(String key, int valueSize) {
+    return 4 + bytes(key).length + 4 + valueSize;
+  }
+
+  private static void assertLatestValues(StickyJournal journal, int rounds, int hotKeys,
+      int valueSize) {
+    for (int key = 0; key < hotKeys; key++) {
+      assertArrayEquals(value((rounds - 1) * hotKeys + key, valueSize), journal.read("hot" + key));
+    }
+    for (int round = 0; round < rounds; round += 10) {
+      assertArrayEquals(value(round, valueSize), journal.read("cold" + round));
+    }
+    assertArrayEquals(bytes("set"), journal.read("nullable"));
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(UTF_8);
+  }
+
+  private static byte[] value(int seed, int size) {
+    byte[] value = new byte[size];
+    Arrays.fill(value, (byte) seed);
+    value[0] = (byte) (seed >> 8);
+    return value;
+  }
+}
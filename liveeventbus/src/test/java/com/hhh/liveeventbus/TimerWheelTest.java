@@ -0,0 +1,99 @@
+package com.hhh.liveeventbus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.Scheduler;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * 推进主线程的时钟，验证延迟任务的取消、精度以及不会每个 tick 都唤醒 Looper
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class TimerWheelTest {
+
+  private static final long TICK_MS = 10L;
+  private static final int WHEEL_SIZE = 512;
+
+  private TimerWheel mTimerWheel;
+
+  @Before
+  public void setUp() {
+    mTimerWheel = new TimerWheel(new Handler(Looper.getMainLooper()));
+  }
+
+  @Test
+  public void cancelledTimeoutNeverFires() {
+    AtomicInteger fired = new AtomicInteger();
+    Cancellable cancellable = mTimerWheel.schedule(fired::incrementAndGet, 100);
+
+    assertTrue(cancellable.cancel());
+    ShadowLooper.idleMainLooper(1, TimeUnit.SECONDS);
+
+    assertEquals(0, fired.get());
+    assertFalse(cancellable.cancel());
+  }
+
+  @Test
+  public void delayLongerThanOneRevolutionFiresOnceOnTime() {
+    AtomicInteger fired = new AtomicInteger();
+    // 三圈多一点，和较早的任务落在同一个槽里
+    long delay = 3 * WHEEL_SIZE * TICK_MS + 5;
+    mTimerWheel.schedule(fired::incrementAndGet, delay);
+    mTimerWheel.schedule(() -> {}, 5);
+
+    ShadowLooper.idleMainLooper(delay - TICK_MS, TimeUnit.MILLISECONDS);
+    assertEquals(0, fired.get());
+    // 到期时间按 tick 向上取整
+    ShadowLooper.idleMainLooper(2 * TICK_MS, TimeUnit.MILLISECONDS);
+    assertEquals(1, fired.get());
+    ShadowLooper.idleMainLooper(1, TimeUnit.MINUTES);
+    assertEquals(1, fired.get());
+  }
+
+  @Test
+  public void longDelayDoesNotWakeLooperEveryTick() {
+    AtomicInteger fired = new AtomicInteger();
+    mTimerWheel.schedule(fired::incrementAndGet, 60_000);
+
+    Scheduler scheduler = Robolectric.getForegroundThreadScheduler();
+    long start = scheduler.getCurrentTime();
+    int wakeUps = 0;
+    while (fired.get() == 0 && scheduler.advanceToNextPostedRunnable()) {
+      wakeUps++;
+    }
+
+    assertEquals(1, fired.get());
+    assertEquals(1, wakeUps);
+    assertEquals(60_000, scheduler.getCurrentTime() - start);
+  }
+
+  @Test
+  public void earlierTimeoutScheduledLaterFiresFirst() {
+    AtomicInteger longFired = new AtomicInteger();
+    AtomicInteger shortFired = new AtomicInteger();
+    mTimerWheel.schedule(longFired::incrementAndGet, 60_000);
+    mTimerWheel.schedule(shortFired::incrementAndGet, 100);
+
+    ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+    assertEquals(1, shortFired.get());
+    assertEquals(0, longFired.get());
+
+    ShadowLooper.idleMainLooper(60, TimeUnit.SECONDS);
+    assertEquals(1, longFired.get());
+  }
+}